@@ -0,0 +1,371 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config.generator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * 
+ * Generates Java source of an accessor table for the Infinispan configuration classes on the
+ * classpath, i.e. every class under org.infinispan.config* (the configuration package and in 5.x
+ * the legacy config package), the same classes ConfigNormalizer walks as config beans. The table
+ * calls getters directly instead of Method.invoke. Getters of int, long, boolean, short and byte
+ * are called through getPrimitive, which returns the value as long without boxing, other primitives
+ * are returned as their String, references as they are. ConfigNormalizer uses the table when the
+ * Infinispan version at runtime is the one the table was generated for and falls back to
+ * reflection otherwise. Only what reflection could invoke is generated, i.e. public no-arg methods
+ * declared in public classes, so the output is the same either way.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class AccessorGenerator {
+
+   public static final String ROOT_CLASS = "org.infinispan.configuration.cache.Configuration";
+   public static final String CONFIG_PACKAGE_PREFIX = "org/infinispan/config";
+   public static final String DEFAULT_CLASS_NAME = "org.jboss.qa.jdg.config.GeneratedAccessors";
+
+   private final ClassLoader classLoader;
+   private final Map<String, Class<?>> classes = new TreeMap<String, Class<?>>();
+
+   public AccessorGenerator(ClassLoader classLoader) {
+      this.classLoader = classLoader;
+   }
+
+   /**
+    * 
+    * Finds configuration classes in the jar or directory that ROOT_CLASS was loaded from.
+    * 
+    * @throws Exception
+    */
+   public void scan() throws Exception {
+      URL location = Class.forName(ROOT_CLASS, false, classLoader).getProtectionDomain().getCodeSource().getLocation();
+      File file = new File(location.toURI());
+      List<String> entries = new ArrayList<String>();
+      if (file.isDirectory()) {
+         listDir(new File(file, "org/infinispan"), "org/infinispan/", entries);
+      } else {
+         JarFile jar = new JarFile(file);
+         try {
+            Enumeration<JarEntry> en = jar.entries();
+            while (en.hasMoreElements()) {
+               entries.add(en.nextElement().getName());
+            }
+         } finally {
+            jar.close();
+         }
+      }
+      for (String entry : entries) {
+         if (!entry.startsWith(CONFIG_PACKAGE_PREFIX) || !entry.endsWith(".class") || entry.contains("Builder")) {
+            continue;
+         }
+         String name = entry.substring(0, entry.length() - ".class".length()).replace('/', '.');
+         try {
+            Class<?> cls = Class.forName(name, false, classLoader);
+            if (isGenerated(cls)) {
+               classes.put(name, cls);
+            }
+         } catch (Throwable e) {
+            // optional dependency missing, reflection will be used if it ever shows up
+         }
+      }
+   }
+
+   private static void listDir(File dir, String path, List<String> entries) {
+      File[] files = dir.listFiles();
+      if (files == null) {
+         return;
+      }
+      for (File f : files) {
+         if (f.isDirectory()) {
+            listDir(f, path + f.getName() + "/", entries);
+         } else {
+            entries.add(path + f.getName());
+         }
+      }
+   }
+
+   private static boolean isGenerated(Class<?> cls) {
+      if (cls.isInterface() || cls.isEnum() || cls.isAnonymousClass() || cls.isLocalClass() || Modifier.isAbstract(cls.getModifiers())) {
+         return false;
+      }
+      for (Class<?> c = cls; c != null; c = c.getDeclaringClass()) {
+         if (!Modifier.isPublic(c.getModifiers())) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * 
+    * Getters in the order ConfigNormalizer walks them (class first, then superclasses), duplicates
+    * of overridden methods removed, inaccessible ones left out the same way Method.invoke would
+    * refuse them.
+    */
+   private static Map<String, Method> getGetters(Class<?> cls) {
+      Map<String, Method> getters = new LinkedHashMap<String, Method>();
+      for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+         for (Method m : c.getDeclaredMethods()) {
+            if (m.getParameterTypes().length != 0 || "toString".equals(m.getName()) || "hashCode".equals(m.getName())) {
+               continue;
+            }
+            if (!Modifier.isPublic(m.getModifiers()) || !Modifier.isPublic(c.getModifiers()) || m.isSynthetic() || getters.containsKey(m.getName())) {
+               continue;
+            }
+            getters.put(m.getName(), m);
+         }
+      }
+      return new TreeMap<String, Method>(getters);
+   }
+
+   /**
+    * 
+    * @return name of the ConfigSnapshot column type the getter is stored in without boxing,
+    *         AccessorTable.REFERENCE if it goes through get()
+    */
+   private static String getValueType(Method m) {
+      Class<?> t = m.getReturnType();
+      if (t == int.class || t == short.class || t == byte.class) {
+         return "ConfigSnapshot.TYPE_INT";
+      } else if (t == long.class) {
+         return "ConfigSnapshot.TYPE_LONG";
+      } else if (t == boolean.class) {
+         return "ConfigSnapshot.TYPE_BOOLEAN";
+      }
+      return "REFERENCE";
+   }
+
+   private static String quote(String s) {
+      StringBuilder sb = new StringBuilder("\"");
+      for (char c : s.toCharArray()) {
+         if (c == '"' || c == '\\') {
+            sb.append('\\').append(c);
+         } else if (c < 0x20 || c > 0x7e) {
+            sb.append(String.format("\\u%04x", (int) c));
+         } else {
+            sb.append(c);
+         }
+      }
+      return sb.append('"').toString();
+   }
+
+   private String getInfinispanVersion() throws Exception {
+      return (String) Class.forName("org.infinispan.Version", true, classLoader).getMethod("printVersion").invoke(null);
+   }
+
+   /**
+    * 
+    * Writes the accessor table source.
+    * 
+    * @param w
+    * @param className
+    *           fully qualified name of the generated class
+    * @throws Exception
+    */
+   public void write(PrintWriter w, String className) throws Exception {
+      int lastDot = className.lastIndexOf('.');
+      List<Class<?>> list = new ArrayList<Class<?>>(classes.values());
+      w.println("package " + className.substring(0, lastDot) + ";");
+      w.println();
+      w.println("import java.util.HashMap;");
+      w.println("import java.util.Map;");
+      w.println();
+      w.println("/**");
+      w.println(" * Generated by " + AccessorGenerator.class.getName() + " from " + getInfinispanVersion() + ", do not edit.");
+      w.println(" */");
+      w.println("@SuppressWarnings({ \"deprecation\", \"unchecked\" })");
+      w.println("public class " + className.substring(lastDot + 1) + " implements AccessorTable {");
+      w.println();
+      w.println("   private static final String INFINISPAN_VERSION = " + quote(getInfinispanVersion()) + ";");
+      w.println();
+      w.println("   private static final String[][] GETTER_NAMES = new String[][] {");
+      for (Class<?> cls : list) {
+         StringBuilder sb = new StringBuilder();
+         for (String name : getGetters(cls).keySet()) {
+            sb.append(sb.length() == 0 ? "" : ", ").append(quote(name));
+         }
+         w.println("      " + (sb.length() == 0 ? "{}" : "{ " + sb + " }") + ", // " + cls.getName());
+      }
+      w.println("   };");
+      w.println();
+      w.println("   private static final byte[][] VALUE_TYPES = new byte[][] {");
+      for (Class<?> cls : list) {
+         StringBuilder sb = new StringBuilder();
+         for (Method m : getGetters(cls).values()) {
+            sb.append(sb.length() == 0 ? "" : ", ").append(getValueType(m));
+         }
+         w.println("      " + (sb.length() == 0 ? "{}" : "{ " + sb + " }") + ", // " + cls.getName());
+      }
+      w.println("   };");
+      w.println();
+      w.println("   private final Map<String, Integer> indexByName = new HashMap<String, Integer>();");
+      w.println();
+      w.println("   public " + className.substring(lastDot + 1) + "() {");
+      for (int i = 0; i < list.size(); i++) {
+         w.println("      indexByName.put(" + quote(list.get(i).getName()) + ", " + i + ");");
+      }
+      w.println("   }");
+      w.println();
+      w.println("   @Override");
+      w.println("   public String getInfinispanVersion() {");
+      w.println("      return INFINISPAN_VERSION;");
+      w.println("   }");
+      w.println();
+      w.println("   @Override");
+      w.println("   public int indexOf(Class<?> cls) {");
+      w.println("      Integer index = indexByName.get(cls.getName());");
+      w.println("      return index != null && getType(index) == cls ? index : -1;");
+      w.println("   }");
+      w.println();
+      w.println("   @Override");
+      w.println("   public String[] getGetterNames(int classIndex) {");
+      w.println("      return GETTER_NAMES[classIndex];");
+      w.println("   }");
+      w.println();
+      w.println("   @Override");
+      w.println("   public byte getValueType(int classIndex, int getterIndex) {");
+      w.println("      return VALUE_TYPES[classIndex][getterIndex];");
+      w.println("   }");
+      w.println();
+      w.println("   private static Class<?> getType(int classIndex) {");
+      w.println("      switch (classIndex) {");
+      for (int i = 0; i < list.size(); i++) {
+         w.println("      case " + i + ":");
+         w.println("         return " + list.get(i).getCanonicalName() + ".class;");
+      }
+      w.println("      default:");
+      w.println("         return null;");
+      w.println("      }");
+      w.println("   }");
+      writeDispatch(w, list, "Object", "get");
+      writeDispatch(w, list, "long", "getPrimitive");
+      for (int i = 0; i < list.size(); i++) {
+         Class<?> cls = list.get(i);
+         StringBuilder references = new StringBuilder();
+         StringBuilder primitives = new StringBuilder();
+         int g = 0;
+         for (Method m : getGetters(cls).values()) {
+            String call = (Modifier.isStatic(m.getModifiers()) ? cls.getCanonicalName() : "o") + "." + m.getName() + "()";
+            Class<?> t = m.getReturnType();
+            if (t == void.class) {
+               references.append("      case ").append(g).append(":\n");
+               references.append("         ").append(call).append(";\n");
+               references.append("         return null;\n");
+            } else if (t == boolean.class) {
+               primitives.append("      case ").append(g).append(":\n");
+               primitives.append("         return ").append(call).append(" ? 1 : 0;\n");
+            } else if (t == int.class || t == long.class || t == short.class || t == byte.class) {
+               primitives.append("      case ").append(g).append(":\n");
+               primitives.append("         return ").append(call).append(";\n");
+            } else if (t.isPrimitive()) {
+               // char, float, double, stored as String anyway
+               references.append("      case ").append(g).append(":\n");
+               references.append("         return String.valueOf(").append(call).append(");\n");
+            } else {
+               references.append("      case ").append(g).append(":\n");
+               references.append("         return ").append(call).append(";\n");
+            }
+            g++;
+         }
+         writeGetters(w, cls, i, "Object", "get", references);
+         writeGetters(w, cls, i, "long", "getPrimitive", primitives);
+      }
+      w.println("}");
+   }
+
+   private static void writeDispatch(PrintWriter w, List<Class<?>> list, String returnType, String method) {
+      w.println();
+      w.println("   @Override");
+      w.println("   public " + returnType + " " + method + "(int classIndex, int getterIndex, Object obj) throws Exception {");
+      w.println("      switch (classIndex) {");
+      for (int i = 0; i < list.size(); i++) {
+         w.println("      case " + i + ":");
+         w.println("         return " + method + i + "(getterIndex, (" + list.get(i).getCanonicalName() + ") obj);");
+      }
+      w.println("      default:");
+      w.println("         throw new IllegalArgumentException(\"No generated class \" + classIndex);");
+      w.println("      }");
+      w.println("   }");
+   }
+
+   private static void writeGetters(PrintWriter w, Class<?> cls, int classIndex, String returnType, String method, CharSequence cases) {
+      w.println();
+      w.println("   private static " + returnType + " " + method + classIndex + "(int getterIndex, " + cls.getCanonicalName() + " o) throws Exception {");
+      w.println("      switch (getterIndex) {");
+      w.print(cases);
+      w.println("      default:");
+      w.println("         throw new IllegalArgumentException(\"No generated " + method + " getter \" + getterIndex + \" in \" + o.getClass().getName());");
+      w.println("      }");
+      w.println("   }");
+   }
+
+   private static void usage() {
+      System.out.println("USAGE AccessorGenerator [OPTIONS]");
+      System.out.println("  generates accessor table for Infinispan configuration classes found on the classpath");
+      System.out.println("OPTIONS:");
+      System.out.println("  -o <output_dir>");
+      System.out.println("     source root to write to, default current directory");
+      System.out.println("  -c <class_name>");
+      System.out.println("     fully qualified name of the generated class, default " + DEFAULT_CLASS_NAME);
+      System.exit(0);
+   }
+
+   public static void main(String[] args) throws Exception {
+      String outputDir = ".";
+      String className = DEFAULT_CLASS_NAME;
+      for (int i = 0; i < args.length; i++) {
+         if (args[i].equals("-o")) {
+            outputDir = args[i + 1];
+            i++;
+         } else if (args[i].equals("-c")) {
+            className = args[i + 1];
+            i++;
+         } else {
+            usage();
+            return;
+         }
+      }
+      AccessorGenerator generator = new AccessorGenerator(Thread.currentThread().getContextClassLoader());
+      generator.scan();
+      File file = new File(outputDir, className.replace('.', '/') + ".java");
+      file.getParentFile().mkdirs();
+      PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+      try {
+         generator.write(w, className);
+      } finally {
+         w.close();
+      }
+      System.out.println("Generated accessors of " + generator.classes.size() + " configuration classes into " + file);
+   }
+}
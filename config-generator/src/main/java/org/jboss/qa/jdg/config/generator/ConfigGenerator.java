@@ -0,0 +1,264 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config.generator;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 
+ * Generates synthetic Infinispan 5.2, 5.3 and 6.0 XML configurations with given number of named
+ * caches and a JGroups stack file. The output depends only on the version, seed and options, the
+ * first N caches of a bigger config are the same as the caches of a config with N caches.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class ConfigGenerator {
+
+   public static final String[] VERSIONS = new String[] { "5.2", "5.3", "6.0" };
+
+   private static final String[] CACHE_NAME_PREFIXES = new String[] { "users", "sessions", "orders", "catalog", "events", "tokens" };
+
+   private static final String[] CLUSTERING_MODES = new String[] { "local", "replication", "invalidation", "distribution" };
+
+   private String version;
+   private long seed;
+   private boolean indexing;
+
+   public ConfigGenerator(String version, long seed) {
+      if (!Arrays.asList(VERSIONS).contains(version)) {
+         throw new IllegalArgumentException("Unsupported version: " + version);
+      }
+      this.version = version;
+      this.seed = seed;
+   }
+
+   /**
+    * 
+    * Enables indexing on some of the caches, this requires infinispan-query on the classpath of
+    * whoever parses the config, otherwise the indexing element is generated with enabled=false.
+    * 
+    * @param indexing
+    */
+   public void setIndexing(boolean indexing) {
+      this.indexing = indexing;
+   }
+
+   /**
+    * 
+    * Writes infinispan configuration.
+    * 
+    * @param w
+    * @param numCaches
+    *           number of named caches
+    * @param jgroupsFile
+    *           path to JGroups stack file referenced from transport
+    */
+   public void writeConfig(PrintWriter w, int numCaches, String jgroupsFile) {
+      Random r = new Random(seed);
+      w.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      w.println("<!-- generated by ConfigGenerator, version " + version + ", seed " + seed + ", " + numCaches + " caches -->");
+      w.println("<infinispan xmlns=\"urn:infinispan:config:" + version + "\">");
+      w.println("   <global>");
+      w.println("      <globalJmxStatistics enabled=\"true\" allowDuplicateDomains=\"true\" cacheManagerName=\"corpus-" + seed + "\" />");
+      w.println("      <transport clusterName=\"corpus-" + seed + "\" machineId=\"m" + r.nextInt(16) + "\" rackId=\"r" + r.nextInt(4) + "\">");
+      w.println("         <properties>");
+      w.println("            <property name=\"configurationFile\" value=\"" + jgroupsFile + "\" />");
+      w.println("         </properties>");
+      w.println("      </transport>");
+      w.println("   </global>");
+      w.println("   <default>");
+      w.println("      <locking concurrencyLevel=\"1000\" lockAcquisitionTimeout=\"10000\" />");
+      w.println("   </default>");
+      for (int i = 0; i < numCaches; i++) {
+         writeCache(w, r, CACHE_NAME_PREFIXES[r.nextInt(CACHE_NAME_PREFIXES.length)] + "-" + i);
+      }
+      w.println("</infinispan>");
+   }
+
+   private void writeCache(PrintWriter w, Random r, String name) {
+      w.println("   <namedCache name=\"" + name + "\">");
+      String mode = CLUSTERING_MODES[r.nextInt(CLUSTERING_MODES.length)];
+      if (!"local".equals(mode)) {
+         w.println("      <clustering mode=\"" + mode + "\">");
+         if (r.nextInt(4) == 0) {
+            w.println("         <async />");
+         } else {
+            w.println("         <sync replTimeout=\"" + (5000 + r.nextInt(20) * 1000) + "\" />");
+         }
+         if ("distribution".equals(mode)) {
+            w.println("         <hash numOwners=\"" + (1 + r.nextInt(3)) + "\" numSegments=\"" + (60 + r.nextInt(4) * 20) + "\" />");
+         }
+         w.println("      </clustering>");
+      }
+      w.println("      <locking isolationLevel=\"" + (r.nextBoolean() ? "READ_COMMITTED" : "REPEATABLE_READ") + "\" concurrencyLevel=\""
+            + (500 + r.nextInt(10) * 100) + "\" lockAcquisitionTimeout=\"" + (1000 + r.nextInt(30) * 1000) + "\" useLockStriping=\"" + r.nextBoolean()
+            + "\" />");
+      if (r.nextBoolean()) {
+         w.println("      <eviction strategy=\"" + (r.nextBoolean() ? "LRU" : "LIRS") + "\" maxEntries=\"" + (1000 * (1 + r.nextInt(1000))) + "\" />");
+      }
+      if (r.nextInt(3) == 0) {
+         w.println("      <expiration lifespan=\"" + (60000L * (1 + r.nextInt(120))) + "\" maxIdle=\"" + (60000L * (1 + r.nextInt(30))) + "\" />");
+      }
+      if (r.nextInt(3) == 0) {
+         writeLoader(w, r, name);
+      }
+      if (r.nextInt(10) == 0) {
+         w.println("      <storeAsBinary enabled=\"true\" storeKeysAsBinary=\"" + r.nextBoolean() + "\" storeValuesAsBinary=\"" + r.nextBoolean() + "\" />");
+      }
+      boolean indexed = r.nextInt(5) == 0;
+      w.println("      <indexing enabled=\"" + (indexing && indexed && !"invalidation".equals(mode)) + "\" indexLocalOnly=\"" + r.nextBoolean() + "\">");
+      w.println("         <properties>");
+      w.println("            <property name=\"default.directory_provider\" value=\"ram\" />");
+      w.println("         </properties>");
+      w.println("      </indexing>");
+      w.println("      <jmxStatistics enabled=\"" + r.nextBoolean() + "\" />");
+      w.println("   </namedCache>");
+   }
+
+   private void writeLoader(PrintWriter w, Random r, String name) {
+      boolean passivation = r.nextBoolean();
+      boolean preload = r.nextBoolean();
+      boolean purgeOnStartup = r.nextBoolean();
+      String location = "${java.io.tmpdir}/corpus-" + seed + "/" + name;
+      if ("6.0".equals(version)) {
+         w.println("      <persistence passivation=\"" + passivation + "\">");
+         w.println("         <singleFile location=\"" + location + "\" preload=\"" + preload + "\" purgeOnStartup=\"" + purgeOnStartup
+               + "\" fetchPersistentState=\"false\" shared=\"false\" />");
+         w.println("      </persistence>");
+      } else {
+         w.println("      <loaders passivation=\"" + passivation + "\" shared=\"false\" preload=\"" + preload + "\">");
+         w.println("         <loader class=\"org.infinispan.loaders.file.FileCacheStore\" fetchPersistentState=\"false\" purgeOnStartup=\""
+               + purgeOnStartup + "\">");
+         w.println("            <properties>");
+         w.println("               <property name=\"location\" value=\"" + location + "\" />");
+         w.println("            </properties>");
+         w.println("         </loader>");
+         w.println("      </loaders>");
+      }
+   }
+
+   /**
+    * 
+    * Writes TCP based JGroups stack.
+    * 
+    * @param w
+    */
+   public void writeJGroupsStack(PrintWriter w) {
+      Random r = new Random(seed);
+      w.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+      w.println("<!-- generated by ConfigGenerator, seed " + seed + " -->");
+      w.println("<config xmlns=\"urn:org:jgroups\">");
+      w.println("   <TCP bind_port=\"" + (7800 + r.nextInt(100)) + "\" loopback=\"true\" recv_buf_size=\"" + (10 + r.nextInt(10)) + "M\" send_buf_size=\""
+            + (640 + r.nextInt(4) * 128) + "K\" max_bundle_size=\"64K\" enable_diagnostics=\"false\" thread_pool.min_threads=\"" + (1 + r.nextInt(4))
+            + "\" thread_pool.max_threads=\"" + (10 + r.nextInt(40)) + "\" />");
+      w.println("   <MPING mcast_port=\"" + (45000 + r.nextInt(1000)) + "\" timeout=\"" + (1000 + r.nextInt(3) * 1000) + "\" num_initial_members=\""
+            + (2 + r.nextInt(4)) + "\" />");
+      w.println("   <MERGE2 max_interval=\"" + (30000 + r.nextInt(10) * 1000) + "\" min_interval=\"" + (10000 + r.nextInt(5) * 1000) + "\" />");
+      w.println("   <FD_SOCK />");
+      w.println("   <FD_ALL timeout=\"" + (30000 + r.nextInt(30) * 1000) + "\" interval=\"" + (5000 + r.nextInt(5) * 1000) + "\" />");
+      w.println("   <VERIFY_SUSPECT timeout=\"" + (1000 + r.nextInt(5) * 500) + "\" />");
+      w.println("   <pbcast.NAKACK2 use_mcast_xmit=\"false\" xmit_interval=\"" + (500 + r.nextInt(5) * 100) + "\" />");
+      w.println("   <UNICAST2 stable_interval=\"" + (5000 + r.nextInt(10) * 1000) + "\" />");
+      w.println("   <pbcast.STABLE stability_delay=\"" + (500 + r.nextInt(10) * 100) + "\" desired_avg_gossip=\"" + (50000 + r.nextInt(10) * 1000)
+            + "\" max_bytes=\"" + (1 + r.nextInt(8)) + "M\" />");
+      w.println("   <pbcast.GMS print_local_addr=\"false\" join_timeout=\"" + (3000 + r.nextInt(5) * 1000) + "\" view_bundling=\"true\" />");
+      w.println("   <UFC max_credits=\"" + (1 + r.nextInt(4)) + "M\" min_threshold=\"0.4\" />");
+      w.println("   <MFC max_credits=\"" + (1 + r.nextInt(4)) + "M\" min_threshold=\"0.4\" />");
+      w.println("   <FRAG2 frag_size=\"" + (30000 + r.nextInt(4) * 10000) + "\" />");
+      w.println("</config>");
+   }
+
+   private static void usage() {
+      System.out.println("USAGE ConfigGenerator [OPTIONS] <num_caches> ...");
+      System.out.println("  writes <output_dir>/jgroups.xml and <output_dir>/infinispan-<num_caches>.xml for each given number of caches");
+      System.out.println("OPTIONS:");
+      System.out.println("  -v <version>");
+      System.out.println("     infinispan config schema version: 5.2, 5.3 or 6.0 (default)");
+      System.out.println("  -s <seed>");
+      System.out.println("     random seed, default 0");
+      System.out.println("  -o <output_dir>");
+      System.out.println("     default current directory");
+      System.out.println("  -i");
+      System.out.println("     enable indexing on some caches, needs infinispan-query to parse the output");
+      System.exit(0);
+   }
+
+   public static void main(String[] args) throws Exception {
+      String version = "6.0";
+      long seed = 0;
+      String outputDir = ".";
+      boolean indexing = false;
+      int[] cacheCounts = new int[args.length];
+      int numCounts = 0;
+      for (int i = 0; i < args.length; i++) {
+         if (args[i].equals("-v")) {
+            version = args[i + 1];
+            i++;
+         } else if (args[i].equals("-s")) {
+            seed = Long.parseLong(args[i + 1]);
+            i++;
+         } else if (args[i].equals("-o")) {
+            outputDir = args[i + 1];
+            i++;
+         } else if (args[i].equals("-i")) {
+            indexing = true;
+         } else {
+            try {
+               cacheCounts[numCounts++] = Integer.parseInt(args[i]);
+            } catch (NumberFormatException e) {
+               usage();
+               return;
+            }
+         }
+      }
+      if (numCounts == 0) {
+         usage();
+         return;
+      }
+      if (!Arrays.asList(VERSIONS).contains(version)) {
+         System.out.println("ERROR: unknown version: " + version);
+         usage();
+         return;
+      }
+      ConfigGenerator generator = new ConfigGenerator(version, seed);
+      generator.setIndexing(indexing);
+      File dir = new File(outputDir);
+      dir.mkdirs();
+      File jgroupsFile = new File(dir, "jgroups.xml");
+      PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(jgroupsFile), "UTF-8"));
+      try {
+         generator.writeJGroupsStack(w);
+      } finally {
+         w.close();
+      }
+      for (int c = 0; c < numCounts; c++) {
+         w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, "infinispan-" + cacheCounts[c] + ".xml")), "UTF-8"));
+         try {
+            generator.writeConfig(w, cacheCounts[c], jgroupsFile.getAbsolutePath());
+         } finally {
+            w.close();
+         }
+      }
+   }
+}
@@ -0,0 +1,73 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Comparator;
+
+/**
+ * 
+ * Binary snapshot written by BinarySnapshotWriter.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class BinaryOutputSink implements OutputSink {
+
+   private BinarySnapshotWriter out;
+
+   @Override
+   public String getFormat() {
+      return "binary";
+   }
+
+   @Override
+   public Comparator<String> getKeyOrder() {
+      return null;
+   }
+
+   @Override
+   public boolean isAppend() {
+      return false;
+   }
+
+   @Override
+   public void open(WritableByteChannel channel) throws IOException {
+      out = new BinarySnapshotWriter(Channels.newOutputStream(channel));
+   }
+
+   @Override
+   public void startSection(String section) {
+   }
+
+   @Override
+   public void entry(String key, int type, String value) throws IOException {
+      out.write(key, type, value);
+   }
+
+   @Override
+   public void endSection(String section) {
+   }
+
+   @Override
+   public void close() throws IOException {
+      out.close();
+   }
+}
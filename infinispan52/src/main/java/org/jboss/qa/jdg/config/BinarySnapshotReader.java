@@ -0,0 +1,390 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * 
+ * Streaming reader of the binary snapshot format written by BinarySnapshotWriter. next() decodes
+ * one entry at a time, the checksum is verified when the end of the file is reached. A single
+ * section can be read without decoding the rest of the file, using the section index at the end.
+ * The main method, run as ConfigNormalizer convert, converts a binary snapshot back to any output
+ * format with the types of the values preserved.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class BinarySnapshotReader {
+
+   private final InputStream in;
+   private final CRC32 crc = new CRC32();
+   private final byte[] buffer = new byte[65536];
+   private int position;
+   private int limit;
+   // start of the bytes of the buffer not added to the checksum yet
+   private int checked;
+   private final boolean singleSection;
+   private boolean inSection;
+   private boolean done;
+   private String section;
+   private byte[] keyBytes = new byte[256];
+   private final List<String> values = new ArrayList<String>();
+   private String key;
+   private byte type;
+   private String value;
+
+   public BinarySnapshotReader(InputStream in) throws IOException {
+      this(in, false);
+      if (readInt() != BinarySnapshotWriter.MAGIC) {
+         throw new IOException("Not a binary config snapshot");
+      }
+      int version = readInt();
+      if (version != BinarySnapshotWriter.VERSION) {
+         throw new IOException("Unsupported binary config snapshot version " + version);
+      }
+   }
+
+   private BinarySnapshotReader(InputStream in, boolean singleSection) {
+      this.in = in;
+      this.singleSection = singleSection;
+      this.checked = singleSection ? -1 : 0;
+   }
+
+   /**
+    * 
+    * Reads whole binary snapshot file.
+    */
+   public static Properties read(String file) throws IOException {
+      return readSnapshot(file).toProperties();
+   }
+
+   /**
+    * 
+    * Reads whole binary snapshot file with the types of the values.
+    */
+   public static ConfigSnapshot readSnapshot(String file) throws IOException {
+      ConfigSnapshot snapshot = new ConfigSnapshot();
+      BinarySnapshotReader r = new BinarySnapshotReader(new FileInputStream(file));
+      try {
+         while (r.next()) {
+            snapshot.add(r.getKey(), r.getType(), r.getValue());
+         }
+      } finally {
+         r.close();
+      }
+      return snapshot;
+   }
+
+   /**
+    * 
+    * @return map section name -&gt; number of entries, from the section index
+    */
+   public static Map<String, Integer> readIndex(String file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+         Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+         BinarySnapshotReader r = openIndex(raf);
+         long sections = r.readVarLong();
+         for (long i = 0; i < sections; i++) {
+            String name = r.readString();
+            r.readVarLong();
+            Integer count = counts.get(name);
+            counts.put(name, (count == null ? 0 : count) + (int) r.readVarLong());
+         }
+         return counts;
+      } finally {
+         raf.close();
+      }
+   }
+
+   /**
+    * 
+    * Reads only the entries of the section, e.g. global, cache or jgroups, seeking to it by the
+    * section index. The checksum isn't verified.
+    */
+   public static Properties readSection(String file, String section) throws IOException {
+      return readSectionSnapshot(file, section).toProperties();
+   }
+
+   /**
+    * 
+    * Same as readSection, with the types of the values.
+    */
+   public static ConfigSnapshot readSectionSnapshot(String file, String section) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+         List<Long> offsets = new ArrayList<Long>();
+         BinarySnapshotReader index = openIndex(raf);
+         long sections = index.readVarLong();
+         for (long i = 0; i < sections; i++) {
+            String name = index.readString();
+            long offset = index.readVarLong();
+            index.readVarLong();
+            if (name.equals(section)) {
+               offsets.add(offset);
+            }
+         }
+         ConfigSnapshot snapshot = new ConfigSnapshot();
+         for (long offset : offsets) {
+            raf.seek(offset);
+            BinarySnapshotReader r = new BinarySnapshotReader(new FileInputStream(raf.getFD()), true);
+            while (r.next()) {
+               snapshot.add(r.getKey(), r.getType(), r.getValue());
+            }
+         }
+         return snapshot;
+      } finally {
+         raf.close();
+      }
+   }
+
+   private static BinarySnapshotReader openIndex(RandomAccessFile raf) throws IOException {
+      raf.seek(raf.length() - 12);
+      raf.seek(raf.readLong());
+      return new BinarySnapshotReader(new FileInputStream(raf.getFD()), true);
+   }
+
+   /**
+    * 
+    * Moves to the next entry.
+    * 
+    * @return false at the end of the snapshot, or of the section for readSection
+    * @throws IOException
+    *            also when the checksum doesn't match
+    */
+   public boolean next() throws IOException {
+      while (!done) {
+         if (!inSection) {
+            int b = readByte();
+            if (b == BinarySnapshotWriter.SECTION) {
+               section = readString();
+               values.clear();
+               inSection = true;
+            } else if (b == BinarySnapshotWriter.END) {
+               verifyChecksum();
+               done = true;
+               return false;
+            } else {
+               throw new IOException("Corrupted binary config snapshot");
+            }
+         }
+         int shared = (int) readVarLong();
+         if (shared == 0) {
+            inSection = false;
+            done = singleSection;
+            continue;
+         }
+         shared--;
+         int suffixLength = readLength();
+         if (shared > keyBytes.length) {
+            throw new IOException("Corrupted binary config snapshot");
+         }
+         if (shared + suffixLength > keyBytes.length) {
+            byte[] bigger = new byte[Math.max(2 * keyBytes.length, shared + suffixLength)];
+            System.arraycopy(keyBytes, 0, bigger, 0, shared);
+            keyBytes = bigger;
+         }
+         readFully(keyBytes, shared, suffixLength);
+         key = new String(keyBytes, 0, shared + suffixLength, BinarySnapshotWriter.UTF8);
+         type = (byte) readByte();
+         if (type > ConfigSnapshot.TYPE_ENUM) {
+            throw new IOException("Corrupted binary config snapshot");
+         }
+         int ref = (int) readVarLong();
+         if (ref == 0) {
+            value = readString();
+            values.add(value);
+         } else if (ref <= values.size()) {
+            value = values.get(ref - 1);
+         } else {
+            throw new IOException("Corrupted binary config snapshot");
+         }
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * 
+    * @return section of the current entry
+    */
+   public String getSection() {
+      return section;
+   }
+
+   public String getKey() {
+      return key;
+   }
+
+   /**
+    * 
+    * @return type of the current value, one of ConfigSnapshot.TYPE_*
+    */
+   public byte getType() {
+      return type;
+   }
+
+   public String getValue() {
+      return value;
+   }
+
+   public void close() throws IOException {
+      in.close();
+   }
+
+   private void verifyChecksum() throws IOException {
+      long sections = readVarLong();
+      for (long i = 0; i < sections; i++) {
+         readString();
+         readVarLong();
+         readVarLong();
+      }
+      readInt();
+      readInt();
+      crc.update(buffer, checked, position - checked);
+      checked = -1;
+      if (readInt() != (int) crc.getValue()) {
+         throw new IOException("Checksum of binary config snapshot doesn't match");
+      }
+   }
+
+   private void fill() throws IOException {
+      if (checked >= 0) {
+         crc.update(buffer, checked, limit - checked);
+         checked = 0;
+      }
+      position = 0;
+      limit = in.read(buffer);
+      if (limit == -1) {
+         limit = 0;
+         throw new EOFException("Unexpected end of binary config snapshot");
+      }
+   }
+
+   private int readByte() throws IOException {
+      if (position == limit) {
+         fill();
+      }
+      return buffer[position++] & 0xff;
+   }
+
+   private void readFully(byte[] b, int offset, int length) throws IOException {
+      while (length > 0) {
+         if (position == limit) {
+            fill();
+         }
+         int n = Math.min(length, limit - position);
+         System.arraycopy(buffer, position, b, offset, n);
+         position += n;
+         offset += n;
+         length -= n;
+      }
+   }
+
+   /**
+    * 
+    * Reads length of a string or key suffix, checking it against the sane maximum.
+    */
+   private int readLength() throws IOException {
+      long length = readVarLong();
+      if (length > Integer.MAX_VALUE / 2) {
+         throw new IOException("Corrupted binary config snapshot");
+      }
+      return (int) length;
+   }
+
+   private int readInt() throws IOException {
+      return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+   }
+
+   private long readVarLong() throws IOException {
+      long v = 0;
+      int shift = 0;
+      int b;
+      do {
+         if (shift > 63) {
+            throw new IOException("Corrupted binary config snapshot");
+         }
+         b = readByte();
+         v |= (long) (b & 0x7f) << shift;
+         shift += 7;
+      } while ((b & 0x80) != 0);
+      return v;
+   }
+
+   private String readString() throws IOException {
+      byte[] bytes = new byte[readLength()];
+      readFully(bytes, 0, bytes.length);
+      return new String(bytes, BinarySnapshotWriter.UTF8);
+   }
+
+   private static void usage() {
+      System.out.println("USAGE ConfigNormalizer convert [OPTIONS] <binary_snapshot_file>");
+      System.out.println("  converts binary snapshot written with -f binary to another output format");
+      System.out.println("OPTIONS:");
+      System.out.println("  -o <output_file>");
+      System.out.println("  -f <output_format>");
+      System.out.println("     any output format of ConfigNormalizer, default xml");
+      System.out.println("  -s <section>");
+      System.out.println("     convert only one section: global, cache, jgroups, ...");
+      System.exit(0);
+   }
+
+   public static void main(String[] args) throws Exception {
+      String outputFile = null;
+      String outputFormat = "xml";
+      String section = null;
+      String inputFile = null;
+      for (int i = 0; i < args.length; i++) {
+         if (args[i].equals("-o")) {
+            outputFile = args[i + 1];
+            i++;
+         } else if (args[i].equals("-f")) {
+            outputFormat = args[i + 1];
+            i++;
+         } else if (args[i].equals("-s")) {
+            section = args[i + 1];
+            i++;
+         } else {
+            inputFile = args[i];
+         }
+      }
+      if (inputFile == null || outputFile == null) {
+         usage();
+         return;
+      }
+      if (ConfigNormalizer.getOutputSink(outputFormat) == null) {
+         System.out.println("ERROR: unknown output format: " + outputFormat);
+         usage();
+         return;
+      }
+      ConfigSnapshot snapshot = section == null ? readSnapshot(inputFile) : readSectionSnapshot(inputFile, section);
+      ConfigNormalizer.store(outputFormat, snapshot, outputFile);
+   }
+}
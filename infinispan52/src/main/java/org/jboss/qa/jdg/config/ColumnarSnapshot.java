@@ -0,0 +1,214 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 
+ * Normalized configuration laid out by columns. Keys of a section (global configuration, one
+ * cache, JGroups stack) are stored once per section type as a schema of key suffixes shared by
+ * all sections of that type, each section only keeps an array of value ids indexed by schema
+ * column. Values are deduplicated in a dictionary shared by all sections, so the true, false, 0
+ * and null repeated in every cache are stored once. With many caches of the same few shapes this
+ * retains a fraction of the heap of the equivalent Properties.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class ColumnarSnapshot {
+
+   private static final int ABSENT = -1;
+
+   private static class Schema {
+      private final List<String> suffixes = new ArrayList<String>();
+      private final Map<String, Integer> columns = new HashMap<String, Integer>();
+
+      private int getColumn(String suffix) {
+         Integer column = columns.get(suffix);
+         return column == null ? ABSENT : column;
+      }
+
+      private int addColumn(String suffix) {
+         int column = getColumn(suffix);
+         if (column == ABSENT) {
+            column = suffixes.size();
+            suffixes.add(suffix);
+            columns.put(suffix, column);
+         }
+         return column;
+      }
+   }
+
+   private final Map<String, Schema> schemaByType = new HashMap<String, Schema>();
+   private final List<String> sectionNames = new ArrayList<String>();
+   private final List<Schema> sectionSchemas = new ArrayList<Schema>();
+   private final List<int[]> sectionValues = new ArrayList<int[]>();
+   private String[] values = new String[64];
+   private byte[] valueTypes = new byte[64];
+   private int valueCount;
+   private Map<String, Integer> valueIds = new HashMap<String, Integer>();
+
+   /**
+    * 
+    * @return number of sections
+    */
+   public int getSectionCount() {
+      return sectionNames.size();
+   }
+
+   /**
+    * 
+    * @return prefix of keys of the section, e.g. cache.&lt;name&gt;
+    */
+   public String getSectionName(int section) {
+      return sectionNames.get(section);
+   }
+
+   /**
+    * 
+    * @return index of the section with given name, -1 if there is none
+    */
+   public int indexOfSection(String name) {
+      return sectionNames.indexOf(name);
+   }
+
+   /**
+    * 
+    * @return number of distinct values in the dictionary
+    */
+   public int getValueCount() {
+      return valueCount;
+   }
+
+   /**
+    * 
+    * @return value of the key suffix in the section as output to properties, null if the section
+    *         doesn't have the key
+    */
+   public String get(int section, String suffix) {
+      int id = getValueId(section, suffix);
+      return id == ABSENT ? null : values[id];
+   }
+
+   /**
+    * 
+    * @return one of ConfigSnapshot.TYPE_*, -1 if the section doesn't have the key
+    */
+   public int getType(int section, String suffix) {
+      int id = getValueId(section, suffix);
+      return id == ABSENT ? ABSENT : valueTypes[id];
+   }
+
+   private int getValueId(int section, String suffix) {
+      int column = sectionSchemas.get(section).getColumn(suffix);
+      int[] ids = sectionValues.get(section);
+      return column == ABSENT || column >= ids.length ? ABSENT : ids[column];
+   }
+
+   public Properties toProperties() {
+      Properties p = new Properties();
+      StringBuilder key = new StringBuilder(256);
+      for (int section = 0; section < sectionNames.size(); section++) {
+         String name = sectionNames.get(section);
+         List<String> suffixes = sectionSchemas.get(section).suffixes;
+         int[] ids = sectionValues.get(section);
+         for (int column = 0; column < ids.length; column++) {
+            if (ids[column] != ABSENT) {
+               key.setLength(0);
+               key.append(name);
+               String suffix = suffixes.get(column);
+               if (key.length() > 0 && suffix.length() > 0 && suffix.charAt(0) != '[') {
+                  key.append('.');
+               }
+               key.append(suffix);
+               p.put(key.toString(), values[ids[column]]);
+            }
+         }
+      }
+      return p;
+   }
+
+   /**
+    * 
+    * Adds section from the entries in range, their keys being relative to the section name.
+    * Sections of the same type share schema, columns the schema doesn't have yet are appended to
+    * it.
+    */
+   void addSection(String name, String type, ConfigSnapshot entries, int from, int to) {
+      Schema schema = schemaByType.get(type);
+      if (schema == null) {
+         schema = new Schema();
+         schemaByType.put(type, schema);
+      }
+      int[] ids = new int[0];
+      for (int i = from; i < to; i++) {
+         int column = schema.addColumn(entries.getKey(i));
+         if (column >= ids.length) {
+            int length = ids.length;
+            ids = Arrays.copyOf(ids, Math.max(column + 1, Math.min(schema.suffixes.size(), 2 * length + 16)));
+            Arrays.fill(ids, length, ids.length, ABSENT);
+         }
+         ids[column] = getValueId(entries.getType(i), entries.getString(i));
+      }
+      int length = ids.length;
+      while (length > 0 && ids[length - 1] == ABSENT) {
+         length--;
+      }
+      sectionNames.add(name);
+      sectionSchemas.add(schema);
+      sectionValues.add(length == ids.length ? ids : Arrays.copyOf(ids, length));
+   }
+
+   private int getValueId(byte type, String value) {
+      if (valueIds == null) {
+         valueIds = new HashMap<String, Integer>();
+         for (int i = 0; i < valueCount; i++) {
+            valueIds.put(valueTypes[i] + values[i], i);
+         }
+      }
+      String dictionaryKey = type + value;
+      Integer id = valueIds.get(dictionaryKey);
+      if (id == null) {
+         if (valueCount == values.length) {
+            values = Arrays.copyOf(values, Math.max(16, valueCount * 2));
+            valueTypes = Arrays.copyOf(valueTypes, values.length);
+         }
+         values[valueCount] = value;
+         valueTypes[valueCount] = type;
+         id = valueCount++;
+         valueIds.put(dictionaryKey, id);
+      }
+      return id;
+   }
+
+   /**
+    * 
+    * Trims the dictionary and drops its lookup map, to be called when all sections are added.
+    */
+   void compact() {
+      values = Arrays.copyOf(values, valueCount);
+      valueTypes = Arrays.copyOf(valueTypes, valueCount);
+      valueIds = null;
+   }
+}
@@ -0,0 +1,239 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 
+ * Writes normalized configuration as a JSON object while the entries come, without building any
+ * tree. Flat output has one member per key. Nested output splits keys on dots into nested
+ * objects, for that the keys have to come in KEY_PATH_ORDER so that the members of an object are
+ * contiguous. A key that is also a prefix of other keys (e.g. a stringified object) becomes an
+ * object with its own value under the empty name. Values of type int, long and boolean are
+ * written as JSON numbers and literals, all other values as JSON strings.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class JsonSnapshotWriter {
+
+   /**
+    * Orders keys segment by segment, as if dot sorted before any other character.
+    */
+   public static final Comparator<String> KEY_PATH_ORDER = new Comparator<String>() {
+      @Override
+      public int compare(String o1, String o2) {
+         int n = Math.min(o1.length(), o2.length());
+         for (int i = 0; i < n; i++) {
+            char c1 = o1.charAt(i);
+            char c2 = o2.charAt(i);
+            if (c1 != c2) {
+               return c1 == '.' ? -1 : (c2 == '.' ? 1 : c1 - c2);
+            }
+         }
+         return o1.length() - o2.length();
+      }
+   };
+
+   private final Writer out;
+   private final boolean nested;
+   private final boolean pretty;
+   // names of the open nested objects
+   private final List<String> open = new ArrayList<String>();
+   // whether anything was written to the open objects, the root object first
+   private final List<Boolean> empty = new ArrayList<Boolean>();
+   private String[] pendingPath;
+   private String pendingValue;
+   private int pendingType;
+
+   /**
+    * 
+    * @param out
+    * @param nested
+    *           split keys on dots into nested objects
+    * @param pretty
+    *           one member per line, otherwise the whole object is written on one line
+    * @throws IOException
+    */
+   public JsonSnapshotWriter(Writer out, boolean nested, boolean pretty) throws IOException {
+      this.out = out;
+      this.nested = nested;
+      this.pretty = pretty;
+      out.write('{');
+      empty.add(Boolean.TRUE);
+   }
+
+   public void write(String key, String value) throws IOException {
+      write(key, ConfigSnapshot.TYPE_STRING, value);
+   }
+
+   /**
+    * 
+    * @param key
+    * @param type
+    *           one of ConfigSnapshot.TYPE_*
+    * @param value
+    * @throws IOException
+    */
+   public void write(String key, int type, String value) throws IOException {
+      if (!nested) {
+         member(key);
+         writeValue(type, value);
+         return;
+      }
+      String[] path = key.split("\\.", -1);
+      if (pendingPath != null) {
+         writePending(path);
+      }
+      pendingPath = path;
+      pendingValue = value;
+      pendingType = type;
+   }
+
+   /**
+    * 
+    * Writes the entry held back until it was known whether the next one is nested in it.
+    */
+   private void writePending(String[] next) throws IOException {
+      boolean parent = next != null && next.length > pendingPath.length;
+      for (int i = 0; parent && i < pendingPath.length; i++) {
+         parent = pendingPath[i].equals(next[i]);
+      }
+      if (parent) {
+         moveTo(pendingPath, pendingPath.length);
+         member("");
+      } else {
+         moveTo(pendingPath, pendingPath.length - 1);
+         member(pendingPath[pendingPath.length - 1]);
+      }
+      writeValue(pendingType, pendingValue);
+   }
+
+   /**
+    * 
+    * Closes and opens nested objects so that the first depth segments of the path are open.
+    */
+   private void moveTo(String[] path, int depth) throws IOException {
+      int common = 0;
+      while (common < open.size() && common < depth && open.get(common).equals(path[common])) {
+         common++;
+      }
+      while (open.size() > common) {
+         closeObject();
+      }
+      for (int i = common; i < depth; i++) {
+         member(path[i]);
+         out.write('{');
+         open.add(path[i]);
+         empty.add(Boolean.TRUE);
+      }
+   }
+
+   private void closeObject() throws IOException {
+      open.remove(open.size() - 1);
+      if (!empty.remove(empty.size() - 1)) {
+         newLine(open.size() + 1);
+      }
+      out.write('}');
+   }
+
+   /**
+    * 
+    * Writes the remaining entry and closes all objects, the underlying writer is left open.
+    */
+   public void end() throws IOException {
+      if (pendingPath != null) {
+         writePending(null);
+         pendingPath = null;
+      }
+      while (!open.isEmpty()) {
+         closeObject();
+      }
+      if (!empty.get(0)) {
+         newLine(0);
+      }
+      out.write('}');
+      out.flush();
+   }
+
+   private void member(String name) throws IOException {
+      int last = empty.size() - 1;
+      if (!empty.get(last)) {
+         out.write(',');
+      }
+      empty.set(last, Boolean.FALSE);
+      newLine(open.size() + 1);
+      writeString(name);
+      out.write(pretty ? ": " : ":");
+   }
+
+   private void newLine(int depth) throws IOException {
+      if (pretty) {
+         out.write('\n');
+         for (int i = 0; i < depth; i++) {
+            out.write("  ");
+         }
+      }
+   }
+
+   /**
+    * 
+    * Numbers and booleans are written as they are, their string forms are valid JSON.
+    */
+   private void writeValue(int type, String value) throws IOException {
+      if (type == ConfigSnapshot.TYPE_INT || type == ConfigSnapshot.TYPE_LONG || type == ConfigSnapshot.TYPE_BOOLEAN) {
+         out.write(value);
+      } else {
+         writeString(value);
+      }
+   }
+
+   private void writeString(String s) throws IOException {
+      out.write('"');
+      int start = 0;
+      for (int i = 0; i < s.length(); i++) {
+         char c = s.charAt(i);
+         String escape = null;
+         if (c == '"') {
+            escape = "\\\"";
+         } else if (c == '\\') {
+            escape = "\\\\";
+         } else if (c == '\n') {
+            escape = "\\n";
+         } else if (c == '\r') {
+            escape = "\\r";
+         } else if (c == '\t') {
+            escape = "\\t";
+         } else if (c < 0x20) {
+            escape = String.format("\\u%04x", (int) c);
+         }
+         if (escape != null) {
+            out.write(s, start, i - start);
+            out.write(escape);
+            start = i + 1;
+         }
+      }
+      out.write(s, start, s.length() - start);
+      out.write('"');
+   }
+}
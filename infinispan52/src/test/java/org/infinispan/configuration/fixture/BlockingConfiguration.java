@@ -0,0 +1,68 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.infinispan.configuration.fixture;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 
+ * Config bean with a getter stuck until released, ignoring interruption like a getter blocked on
+ * a lock or I/O does. The package makes ConfigNormalizer walk it as a config bean.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class BlockingConfiguration {
+
+   private final CountDownLatch release;
+   private final AtomicInteger calls;
+
+   /**
+    * 
+    * @param release
+    *           blocked() returns once this is counted down
+    * @param calls
+    *           incremented on every call of blocked()
+    */
+   public BlockingConfiguration(CountDownLatch release, AtomicInteger calls) {
+      this.release = release;
+      this.calls = calls;
+   }
+
+   public String name() {
+      return "blocking";
+   }
+
+   public String blocked() {
+      calls.incrementAndGet();
+      boolean interrupted = false;
+      while (true) {
+         try {
+            release.await();
+            break;
+         } catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      if (interrupted) {
+         Thread.currentThread().interrupt();
+      }
+      return "released";
+   }
+}
@@ -0,0 +1,283 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.infinispan.manager.DefaultCacheManager;
+
+/**
+ * 
+ * Measures overhead of {@link ConfigNormalizerModuleLifecycle} on cache manager and cache start.
+ * Every measurement runs in a fresh JVM. The runs without the module leave out the classpath entry
+ * that registers it in META-INF/services, so Infinispan never loads or calls it, the baseline
+ * doesn't pay for service loading or lifecycle registration. The manager is clustered over
+ * benchmark-jgroups.xml, a single node SHARED_LOOPBACK stack, so the JGroups channel is there but
+ * no network is involved.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class ConfigNormalizerBenchmark {
+
+   private static final String JGROUPS_CONFIG = "benchmark-jgroups.xml";
+
+   private static final String LIFECYCLE_SERVICE = "META-INF/services/org.infinispan.lifecycle.ModuleLifecycle";
+
+   // not a class literal, runs without the module must not load the class
+   private static final String LIFECYCLE_CLASS = "org.jboss.qa.jdg.config.ConfigNormalizerModuleLifecycle";
+
+   private static final String RESULT_PREFIX = "RESULT ";
+
+   private static class Result {
+      private long managerStart;
+      private long[] cacheStarts;
+      private long retainedHeap;
+   }
+
+   private static void usage() {
+      System.out.println("USAGE ConfigNormalizerBenchmark [OPTIONS] [<num_caches> ...]");
+      System.out.println("  starts a manager with given numbers of caches with and without the module, default cache counts: 1 10 100 1000 10000");
+      System.out.println("OPTIONS:");
+      System.out.println("  -m <cache_mode>");
+      System.out.println("     cache mode of started caches, default REPL_SYNC");
+      System.exit(0);
+   }
+
+   public static void main(String[] args) throws Exception {
+      if (args.length == 3 && args[0].equals("-child")) {
+         runChild(Integer.parseInt(args[1]), CacheMode.valueOf(args[2]));
+         return;
+      }
+      CacheMode cacheMode = CacheMode.REPL_SYNC;
+      int[] cacheCounts = new int[args.length];
+      int numCounts = 0;
+      for (int i = 0; i < args.length; i++) {
+         if (args[i].equals("-m")) {
+            cacheMode = CacheMode.valueOf(args[i + 1]);
+            i++;
+         } else {
+            try {
+               cacheCounts[numCounts++] = Integer.parseInt(args[i]);
+            } catch (NumberFormatException e) {
+               usage();
+               return;
+            }
+         }
+      }
+      cacheCounts = numCounts == 0 ? new int[] { 1, 10, 100, 1000, 10000 } : Arrays.copyOf(cacheCounts, numCounts);
+      String classPath = System.getProperty("java.class.path");
+      String baselineClassPath = withoutLifecycle(classPath);
+      if (baselineClassPath.equals(classPath)) {
+         System.err.println("No classpath entry registers " + LIFECYCLE_CLASS + " in " + LIFECYCLE_SERVICE);
+         System.exit(1);
+      }
+      System.out.println(String.format("%8s %6s %12s %10s %10s %10s %10s %10s %12s", "caches", "module", "manager[ms]", "total[ms]", "p50[us]",
+            "p90[us]", "p99[us]", "max[us]", "heap[kB]"));
+      for (int cacheCount : cacheCounts) {
+         for (boolean enabled : new boolean[] { false, true }) {
+            Result r = fork(enabled ? classPath : baselineClassPath, cacheCount, cacheMode);
+            long total = 0;
+            for (long t : r.cacheStarts) {
+               total += t;
+            }
+            long[] sorted = r.cacheStarts.clone();
+            Arrays.sort(sorted);
+            System.out.println(String.format("%8d %6s %12.3f %10.3f %10.1f %10.1f %10.1f %10.1f %12d", cacheCount, enabled ? "on" : "off",
+                  r.managerStart / 1e6, total / 1e6, percentile(sorted, 0.5) / 1e3, percentile(sorted, 0.9) / 1e3, percentile(sorted, 0.99) / 1e3,
+                  sorted[sorted.length - 1] / 1e3, r.retainedHeap / 1024));
+         }
+      }
+   }
+
+   /**
+    * 
+    * @param classPath
+    * @return the class path without entries that register the module lifecycle
+    */
+   private static String withoutLifecycle(String classPath) throws Exception {
+      StringBuilder sb = new StringBuilder();
+      for (String entry : classPath.split(File.pathSeparator)) {
+         if (entry.length() == 0 || registersLifecycle(new File(entry))) {
+            continue;
+         }
+         if (sb.length() > 0) {
+            sb.append(File.pathSeparator);
+         }
+         sb.append(entry);
+      }
+      return sb.toString();
+   }
+
+   private static boolean registersLifecycle(File entry) throws Exception {
+      if (entry.isDirectory()) {
+         File service = new File(entry, LIFECYCLE_SERVICE);
+         return service.isFile() && mentionsLifecycle(new FileInputStream(service));
+      }
+      if (!entry.isFile()) {
+         return false;
+      }
+      JarFile jar = new JarFile(entry);
+      try {
+         ZipEntry service = jar.getEntry(LIFECYCLE_SERVICE);
+         return service != null && mentionsLifecycle(jar.getInputStream(service));
+      } finally {
+         jar.close();
+      }
+   }
+
+   private static boolean mentionsLifecycle(InputStream in) throws Exception {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+      try {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            if (line.trim().equals(LIFECYCLE_CLASS)) {
+               return true;
+            }
+         }
+         return false;
+      } finally {
+         reader.close();
+      }
+   }
+
+   /**
+    * 
+    * Runs one measurement in a new JVM with the same JVM options and given class path.
+    * 
+    */
+   private static Result fork(String classPath, int cacheCount, CacheMode cacheMode) throws Exception {
+      List<String> command = new ArrayList<String>();
+      command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+      command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+      command.add("-classpath");
+      command.add(classPath);
+      command.add(ConfigNormalizerBenchmark.class.getName());
+      command.add("-child");
+      command.add(Integer.toString(cacheCount));
+      command.add(cacheMode.name());
+      ProcessBuilder pb = new ProcessBuilder(command);
+      pb.redirectErrorStream(true);
+      Process process = pb.start();
+      Result r = null;
+      BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+      try {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            if (line.startsWith(RESULT_PREFIX)) {
+               r = parseResult(line.substring(RESULT_PREFIX.length()));
+            } else {
+               System.err.println(line);
+            }
+         }
+      } finally {
+         reader.close();
+      }
+      int exit = process.waitFor();
+      if (r == null || exit != 0) {
+         throw new IllegalStateException("Benchmark JVM failed with exit code " + exit);
+      }
+      return r;
+   }
+
+   private static Result parseResult(String line) {
+      String[] parts = line.split(" ");
+      Result r = new Result();
+      r.managerStart = Long.parseLong(parts[0]);
+      r.retainedHeap = Long.parseLong(parts[1]);
+      r.cacheStarts = new long[parts.length - 2];
+      for (int i = 0; i < r.cacheStarts.length; i++) {
+         r.cacheStarts[i] = Long.parseLong(parts[i + 2]);
+      }
+      return r;
+   }
+
+   private static void runChild(int cacheCount, CacheMode cacheMode) {
+      // warmup
+      startup(100, cacheMode, 0);
+      Result r = startup(cacheCount, cacheMode, 1);
+      StringBuilder sb = new StringBuilder(RESULT_PREFIX);
+      sb.append(r.managerStart).append(' ').append(r.retainedHeap);
+      for (long t : r.cacheStarts) {
+         sb.append(' ').append(t);
+      }
+      System.out.println(sb);
+   }
+
+   private static long percentile(long[] sorted, double q) {
+      int idx = (int) Math.ceil(q * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+   }
+
+   private static long usedHeapAfterGC() {
+      MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+      for (int i = 0; i < 3; i++) {
+         System.gc();
+      }
+      return memory.getHeapMemoryUsage().getUsed();
+   }
+
+   /**
+    * 
+    * Starts a clustered cache manager with given number of caches, each start is timed separately.
+    * Retained heap is measured with all caches running.
+    * 
+    */
+   private static Result startup(int cacheCount, CacheMode cacheMode, int managerIndex) {
+      GlobalConfigurationBuilder gcb = GlobalConfigurationBuilder.defaultClusteredBuilder();
+      gcb.globalJmxStatistics().allowDuplicateDomains(true).cacheManagerName("benchmark-" + managerIndex);
+      gcb.transport().addProperty("configurationFile", JGROUPS_CONFIG);
+      ConfigurationBuilder cb = new ConfigurationBuilder();
+      cb.clustering().cacheMode(cacheMode);
+      Configuration config = cb.build();
+      Result r = new Result();
+      r.cacheStarts = new long[cacheCount];
+      long heapBefore = usedHeapAfterGC();
+      long start = System.nanoTime();
+      DefaultCacheManager manager = new DefaultCacheManager(gcb.build(), config);
+      r.managerStart = System.nanoTime() - start;
+      try {
+         for (int i = 0; i < cacheCount; i++) {
+            String cacheName = "cache" + i;
+            manager.defineConfiguration(cacheName, config);
+            start = System.nanoTime();
+            manager.getCache(cacheName);
+            r.cacheStarts[i] = System.nanoTime() - start;
+         }
+         r.retainedHeap = usedHeapAfterGC() - heapBefore;
+         return r;
+      } finally {
+         manager.stop();
+      }
+   }
+}
@@ -0,0 +1,274 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.global.GlobalConfiguration;
+import org.infinispan.configuration.parsing.ConfigurationBuilderHolder;
+import org.infinispan.configuration.parsing.ParserRegistry;
+import org.jgroups.JChannel;
+
+/**
+ * 
+ * Normalizes configs of growing size (typically infinispan-&lt;n&gt;.xml files written by
+ * ConfigGenerator from the config-generator module) and checks that normalization time and peak
+ * heap grow no worse than linearly with the number of caches. Exits with status 1 when the cost per
+ * cache of any config exceeds the cost per cache of the smallest config times the tolerance.
+ * Retained heap of the result is reported both for Properties and for ColumnarSnapshot. Also fails
+ * when the generated accessor table and plain reflection produce entries of different type or value.
+ * The same check runs as ConfigNormalizerScaleIT in the benchmark profile.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class ConfigNormalizerScaleBenchmark {
+
+   public static final int DEFAULT_REPEATS = 5;
+   public static final double DEFAULT_TOLERANCE = 2.0;
+
+   static class Result {
+      private File file;
+      private int cacheCount;
+      private long time;
+      private long peakHeap;
+      private double subtreeHitRate;
+      private int propertyCount;
+      private long allocated;
+      private long retainedProperties;
+      private long retainedColumnar;
+      private List<String> accessorDiffs;
+   }
+
+   private static void usage() {
+      System.out.println("USAGE ConfigNormalizerScaleBenchmark [OPTIONS] <config_file_or_dir> ...");
+      System.out.println("  directories are searched for infinispan-*.xml files");
+      System.out.println("OPTIONS:");
+      System.out.println("  -r <repeats>");
+      System.out.println("     normalization runs per config, the fastest one counts, default " + DEFAULT_REPEATS);
+      System.out.println("  -t <tolerance>");
+      System.out.println("     allowed growth of cost per cache relative to the smallest config, default " + DEFAULT_TOLERANCE);
+      System.exit(0);
+   }
+
+   public static void main(String[] args) throws Exception {
+      int repeats = DEFAULT_REPEATS;
+      double tolerance = DEFAULT_TOLERANCE;
+      List<File> files = new ArrayList<File>();
+      for (int i = 0; i < args.length; i++) {
+         if (args[i].equals("-r")) {
+            repeats = Integer.parseInt(args[i + 1]);
+            i++;
+         } else if (args[i].equals("-t")) {
+            tolerance = Double.parseDouble(args[i + 1]);
+            i++;
+         } else {
+            files.addAll(findConfigs(new File(args[i])));
+         }
+      }
+      if (files.isEmpty()) {
+         usage();
+         return;
+      }
+      List<Result> results = measure(files, repeats);
+      print(results);
+      List<String> failures = check(results, tolerance);
+      for (String failure : failures) {
+         System.out.println("FAIL: " + failure);
+      }
+      if (!failures.isEmpty()) {
+         System.exit(1);
+      }
+   }
+
+   /**
+    * 
+    * @param f
+    *           config file or directory with infinispan-*.xml files
+    * @return the config files
+    */
+   static List<File> findConfigs(File f) {
+      List<File> files = new ArrayList<File>();
+      if (f.isDirectory()) {
+         for (File child : f.listFiles()) {
+            if (child.getName().startsWith("infinispan-") && child.getName().endsWith(".xml")) {
+               files.add(child);
+            }
+         }
+      } else {
+         files.add(f);
+      }
+      return files;
+   }
+
+   /**
+    * 
+    * @return results sorted by the number of caches
+    */
+   static List<Result> measure(List<File> files, int repeats) throws Exception {
+      List<Result> results = new ArrayList<Result>();
+      for (File f : files) {
+         results.add(measure(f, repeats));
+      }
+      Collections.sort(results, new Comparator<Result>() {
+         @Override
+         public int compare(Result o1, Result o2) {
+            return o1.cacheCount < o2.cacheCount ? -1 : (o1.cacheCount == o2.cacheCount ? 0 : 1);
+         }
+      });
+      return results;
+   }
+
+   static void print(List<Result> results) {
+      System.out.println(String.format("%8s %12s %12s %14s %12s %8s %10s %12s %12s %14s  %s", "caches", "time[ms]", "us/cache", "peakHeap[kB]",
+            "B/cache", "memo[%]", "props", "alloc[B/p]", "retProps[kB]", "retColumnar[kB]", "file"));
+      for (Result r : results) {
+         System.out.println(String.format("%8d %12.3f %12.2f %14d %12d %8.1f %10d %12s %12d %14d  %s", r.cacheCount, r.time / 1e6, r.time / 1e3
+               / r.cacheCount, r.peakHeap / 1024, r.peakHeap / r.cacheCount, r.subtreeHitRate * 100, r.propertyCount,
+               r.allocated < 0 ? "n/a" : String.valueOf(r.allocated / Math.max(r.propertyCount, 1)), r.retainedProperties / 1024,
+               r.retainedColumnar / 1024, r.file.getName()));
+      }
+   }
+
+   /**
+    * 
+    * @param results
+    *           sorted by the number of caches, the first one is the base of the comparison
+    * @param tolerance
+    * @return descriptions of the failed checks, empty if all passed
+    */
+   static List<String> check(List<Result> results, double tolerance) {
+      List<String> failures = new ArrayList<String>();
+      Result base = results.get(0);
+      for (Result r : results) {
+         if (!r.accessorDiffs.isEmpty()) {
+            failures.add("generated accessors and reflection give different entries for " + r.file.getName() + ", " + r.accessorDiffs.size()
+                  + " entries, first: " + r.accessorDiffs.get(0));
+         }
+         if ((double) r.time / r.cacheCount > tolerance * base.time / base.cacheCount) {
+            failures.add("normalization time of " + r.cacheCount + " caches grows faster than linearly");
+         }
+         if ((double) r.peakHeap / r.cacheCount > tolerance * Math.max(base.peakHeap, 1) / base.cacheCount) {
+            failures.add("peak heap of " + r.cacheCount + " caches grows faster than linearly");
+         }
+      }
+      return failures;
+   }
+
+   /**
+    * 
+    * @return bytes allocated by the current thread so far, -1 if the JVM can't tell
+    */
+   private static long getAllocatedBytes() {
+      ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      if (threads instanceof com.sun.management.ThreadMXBean) {
+         return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+      return -1;
+   }
+
+   private static long usedHeapAfterGC() {
+      MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+      for (int i = 0; i < 3; i++) {
+         System.gc();
+      }
+      return memory.getHeapMemoryUsage().getUsed();
+   }
+
+   private static List<MemoryPoolMXBean> getHeapPools() {
+      List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+         if (pool.getType() == MemoryType.HEAP) {
+            pools.add(pool);
+         }
+      }
+      return pools;
+   }
+
+   private static Result measure(File file, int repeats) throws Exception {
+      ConfigurationBuilderHolder holder;
+      InputStream in = new FileInputStream(file);
+      try {
+         holder = new ParserRegistry(Thread.currentThread().getContextClassLoader()).parse(in);
+      } finally {
+         in.close();
+      }
+      GlobalConfiguration globalConfiguration = holder.getGlobalConfigurationBuilder().build();
+      Map<String, Configuration> cacheConfigurations = ConfigNormalizer.buildCacheConfigurations(holder);
+      JChannel jgroupsChannel = ConfigNormalizer.getInitializedJChannel(globalConfiguration);
+      try {
+         Result r = new Result();
+         r.file = file;
+         r.cacheCount = cacheConfigurations.size();
+         r.time = Long.MAX_VALUE;
+         SubtreeStats stats = new SubtreeStats();
+         for (int i = 0; i < repeats; i++) {
+            long start = System.nanoTime();
+            ConfigNormalizer.reflectSnapshot(globalConfiguration, cacheConfigurations, jgroupsChannel, stats).toProperties();
+            r.time = Math.min(r.time, System.nanoTime() - start);
+         }
+         long lookups = stats.getLookupCount();
+         r.subtreeHitRate = lookups == 0 ? 0 : (double) stats.getHitCount() / lookups;
+         List<MemoryPoolMXBean> pools = getHeapPools();
+         System.gc();
+         long before = 0;
+         for (MemoryPoolMXBean pool : pools) {
+            pool.resetPeakUsage();
+            before += pool.getUsage().getUsed();
+         }
+         long allocatedBefore = getAllocatedBytes();
+         Properties props = ConfigNormalizer.reflectProperties(globalConfiguration, cacheConfigurations, jgroupsChannel);
+         r.allocated = allocatedBefore < 0 ? -1 : getAllocatedBytes() - allocatedBefore;
+         r.propertyCount = props.size();
+         long peak = 0;
+         for (MemoryPoolMXBean pool : pools) {
+            peak += pool.getPeakUsage().getUsed();
+         }
+         r.peakHeap = peak - before;
+         props = null;
+         long heapBefore = usedHeapAfterGC();
+         props = ConfigNormalizer.reflectProperties(globalConfiguration, cacheConfigurations, jgroupsChannel);
+         long heapProperties = usedHeapAfterGC();
+         ColumnarSnapshot columnar = ConfigNormalizer.reflectColumnarSnapshot(globalConfiguration, cacheConfigurations, jgroupsChannel);
+         long heapColumnar = usedHeapAfterGC();
+         r.retainedProperties = heapProperties - heapBefore;
+         r.retainedColumnar = heapColumnar - heapProperties;
+         if (!columnar.toProperties().equals(props)) {
+            System.out.println("WARN: columnar snapshot of " + file.getName() + " doesn't render to the same properties");
+         }
+         r.accessorDiffs = ConfigNormalizer.compareAccessorPaths(globalConfiguration, cacheConfigurations);
+         return r;
+      } finally {
+         jgroupsChannel.close();
+      }
+   }
+}
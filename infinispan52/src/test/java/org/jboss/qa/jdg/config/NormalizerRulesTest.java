@@ -0,0 +1,126 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import org.infinispan.configuration.cache.ClusteringConfiguration;
+import org.infinispan.configuration.global.GlobalConfiguration;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * 
+ * Parsing of rules files and matching of class, method and key rules.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class NormalizerRulesTest {
+
+   private File file;
+
+   @After
+   public void tearDown() {
+      System.clearProperty(NormalizerRules.PROP_RULES);
+      if (file != null) {
+         file.delete();
+      }
+   }
+
+   private NormalizerRules load(String... lines) throws Exception {
+      file = File.createTempFile("config-normalizer-rules", ".txt");
+      Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+      try {
+         for (String line : lines) {
+            out.write(line);
+            out.write('\n');
+         }
+      } finally {
+         out.close();
+      }
+      System.setProperty(NormalizerRules.PROP_RULES, file.getPath());
+      return NormalizerRules.load();
+   }
+
+   @Test
+   public void testClassRules() throws Exception {
+      NormalizerRules rules = load("skip class java.util.AbstractList", "stringify class java.lang.Runnable");
+      assertEquals(NormalizerRules.SKIP, rules.getClassAction(ArrayList.class));
+      assertEquals(NormalizerRules.STRINGIFY, rules.getClassAction(Thread.class));
+      assertEquals(NormalizerRules.INCLUDE, rules.getClassAction(String.class));
+      assertFalse(rules.hasKeyRules());
+   }
+
+   @Test
+   public void testMethodRules() throws Exception {
+      NormalizerRules rules = load("skip method java.util.AbstractCollection.isEmpty", "stringify method *.size", "skip method java.util.ArrayList.size");
+      assertEquals(NormalizerRules.SKIP, rules.getMethodAction(ArrayList.class, "isEmpty"));
+      // a rule of the class wins over the wildcard
+      assertEquals(NormalizerRules.SKIP, rules.getMethodAction(ArrayList.class, "size"));
+      assertEquals(NormalizerRules.STRINGIFY, rules.getMethodAction(LinkedList.class, "size"));
+      assertEquals(NormalizerRules.INCLUDE, rules.getMethodAction(ArrayList.class, "iterator"));
+   }
+
+   @Test
+   public void testKeyRules() throws Exception {
+      NormalizerRules rules = load("skip key cache.*.eviction.*", "stringify key *.transport", "skip key a.b[0]", "stringify key *");
+      assertTrue(rules.hasKeyRules());
+      assertEquals(NormalizerRules.SKIP, rules.getKeyAction("cache.c1.eviction.strategy"));
+      assertEquals(NormalizerRules.STRINGIFY, rules.getKeyAction(new StringBuilder("global.transport")));
+      // the whole key has to match, the first matching rule wins
+      assertEquals(NormalizerRules.STRINGIFY, rules.getKeyAction("cache.c1.evictionStrategy"));
+      assertEquals(NormalizerRules.SKIP, rules.getKeyAction("a.b[0]"));
+      assertEquals(NormalizerRules.STRINGIFY, rules.getKeyAction("aXb[0]"));
+   }
+
+   @Test
+   public void testInvalidLinesAreIgnored() throws Exception {
+      NormalizerRules rules = load("# comment", "", "   ", "drop method java.util.ArrayList.size", "skip method size", "skip class", "skip key a b",
+            "skip class java.util.ArrayList");
+      assertEquals(NormalizerRules.SKIP, rules.getClassAction(ArrayList.class));
+      assertEquals(NormalizerRules.INCLUDE, rules.getMethodAction(ArrayList.class, "size"));
+      assertFalse(rules.hasKeyRules());
+   }
+
+   @Test
+   public void testMissingFileGivesNoRules() throws Exception {
+      System.setProperty(NormalizerRules.PROP_RULES, new File("does-not-exist-config-normalizer-rules.txt").getAbsolutePath());
+      NormalizerRules rules = NormalizerRules.load();
+      assertEquals(NormalizerRules.INCLUDE, rules.getClassAction(ArrayList.class));
+      assertFalse(rules.hasKeyRules());
+   }
+
+   @Test
+   public void testBundledDefaults() throws Exception {
+      NormalizerRules rules = NormalizerRules.load();
+      assertEquals(NormalizerRules.SKIP, rules.getMethodAction(GlobalConfiguration.class, "classLoader"));
+      assertEquals(NormalizerRules.SKIP, rules.getMethodAction(ClusteringConfiguration.class, "cacheModeString"));
+      assertEquals(NormalizerRules.INCLUDE, rules.getMethodAction(ClusteringConfiguration.class, "cacheMode"));
+      assertFalse("default rules must not slow down every property", rules.hasKeyRules());
+   }
+}
@@ -0,0 +1,142 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * 
+ * Lookups in standard and binary snapshots through the sidecar index, and rebuilding of a stale
+ * index.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class SnapshotQueryTest {
+
+   private File file;
+
+   @After
+   public void tearDown() {
+      if (file != null) {
+         file.delete();
+         new File(file.getPath() + ".idx").delete();
+         new File(file.getPath() + ".idx.tmp").delete();
+      }
+   }
+
+   private static Properties properties(String cacheMode, String maxEntries) {
+      Properties p = new Properties();
+      p.setProperty("cache.dist.clustering.cacheMode", cacheMode);
+      p.setProperty("cache.dist.eviction.maxEntries", maxEntries);
+      p.setProperty("cache.dist.eviction.strategy", "LRU");
+      p.setProperty("cache.local.eviction.maxEntries", "500");
+      p.setProperty("cache.my cache.name", "my cache");
+      p.setProperty("global.transport.clusterName", "ISPN");
+      p.setProperty("global.transport.properties", "a=1\nb=2");
+      return p;
+   }
+
+   private void store(boolean binary, Properties p) throws Exception {
+      if (file == null) {
+         file = File.createTempFile("config-snapshot", binary ? ".bin" : ".properties");
+      }
+      if (binary) {
+         ConfigNormalizer.storeSortedPropertiesAsBinary(p, file.getPath());
+      } else {
+         ConfigNormalizer.storeSortedProperties(p, file.getPath());
+      }
+   }
+
+   private void testLookups(boolean binary) throws Exception {
+      store(binary, properties("DIST_SYNC", "1000"));
+      SnapshotQuery q = SnapshotQuery.open(file);
+      assertTrue(new File(file.getPath() + ".idx").isFile());
+      assertEquals(7, q.size());
+      assertEquals("DIST_SYNC", q.get("cache.dist.clustering.cacheMode"));
+      assertEquals("my cache", q.get("cache.my cache.name"));
+      assertEquals("a=1\nb=2", q.get("global.transport.properties"));
+      assertNull(q.get("cache.dist.eviction"));
+      assertNull(q.get("cache.missing"));
+
+      Map<String, String> prefixed = q.getPrefixed("cache.dist.eviction.");
+      assertEquals(Arrays.asList("cache.dist.eviction.maxEntries", "cache.dist.eviction.strategy"), Arrays.asList(prefixed.keySet().toArray()));
+      assertEquals("LRU", prefixed.get("cache.dist.eviction.strategy"));
+      assertEquals(0, q.getPrefixed("jgroups.").size());
+
+      Map<String, String> glob = q.glob("cache.*.eviction.maxEntries");
+      assertEquals(2, glob.size());
+      assertEquals("500", glob.get("cache.local.eviction.maxEntries"));
+      assertEquals(3, q.glob("cache.dist.*").size());
+      assertEquals(1, q.glob("global.transport.clusterNam?").size());
+      assertEquals(1, q.glob("global.transport.clusterName").size());
+      assertEquals(0, q.glob("global.*.missing").size());
+
+      // the index written by the first open is reused
+      assertEquals("1000", SnapshotQuery.open(file).get("cache.dist.eviction.maxEntries"));
+   }
+
+   private void testStaleIndex(boolean binary) throws Exception {
+      store(binary, properties("DIST_SYNC", "1000"));
+      long length = file.length();
+      long lastModified = file.lastModified();
+      assertEquals("1000", SnapshotQuery.open(file).get("cache.dist.eviction.maxEntries"));
+      // same length but moved values, only the modification time tells the index is stale
+      store(binary, properties("REPL_SYN", "20000"));
+      assertEquals(length, file.length());
+      assertTrue(file.setLastModified(lastModified + 2000));
+      SnapshotQuery q = SnapshotQuery.open(file);
+      assertEquals("REPL_SYN", q.get("cache.dist.clustering.cacheMode"));
+      assertEquals("20000", q.get("cache.dist.eviction.maxEntries"));
+      // different length
+      store(binary, properties("INVALIDATION_SYNC", "30000"));
+      q = SnapshotQuery.open(file);
+      assertEquals("30000", q.get("cache.dist.eviction.maxEntries"));
+      assertEquals("ISPN", q.get("global.transport.clusterName"));
+   }
+
+   @Test
+   public void testStandardLookups() throws Exception {
+      testLookups(false);
+   }
+
+   @Test
+   public void testBinaryLookups() throws Exception {
+      testLookups(true);
+   }
+
+   @Test
+   public void testStandardStaleIndex() throws Exception {
+      testStaleIndex(false);
+   }
+
+   @Test
+   public void testBinaryStaleIndex() throws Exception {
+      testStaleIndex(true);
+   }
+}
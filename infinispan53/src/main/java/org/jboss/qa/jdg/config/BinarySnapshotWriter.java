@@ -0,0 +1,203 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 
+ * Writes normalized configuration in binary snapshot format, read by BinarySnapshotReader.
+ * Entries are expected in sorted order and are grouped into sections by the first segment of
+ * the key (global, cache, jgroups, ...). Each section is self contained: keys are front coded
+ * against the previous key of the section, values are dictionary encoded, a value is written once
+ * and referred to by id afterwards. Each entry carries the type of its value (ConfigSnapshot.TYPE_*)
+ * so that numbers and booleans are read back as such. Layout:
+ * 
+ * <pre>
+ * int magic, int version
+ * per section: byte 1, name, per entry: varint shared+1, varint suffix length, suffix, byte type,
+ *              value ref (varint 0 + value or varint id+1), varint 0
+ * byte 0
+ * index: varint section count, per section: name, varint offset, varint entry count
+ * long offset of the index, int CRC32 of everything before it
+ * </pre>
+ * 
+ * Strings are a varint length followed by UTF-8 bytes.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class BinarySnapshotWriter {
+
+   public static final int MAGIC = 0x434e4253;
+   public static final int VERSION = 2;
+
+   static final int SECTION = 1;
+   static final int END = 0;
+
+   static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private final OutputStream out;
+   private final CRC32 crc = new CRC32();
+   private final byte[] buffer = new byte[65536];
+   private int buffered;
+   private long flushed;
+   private String section;
+   private byte[] previousKey = new byte[0];
+   private final Map<String, Integer> valueIds = new HashMap<String, Integer>();
+   private int entryCount;
+   private final List<String> indexNames = new ArrayList<String>();
+   private final List<Long> indexOffsets = new ArrayList<Long>();
+   private final List<Integer> indexCounts = new ArrayList<Integer>();
+
+   public BinarySnapshotWriter(OutputStream out) throws IOException {
+      this.out = out;
+      writeInt(MAGIC);
+      writeInt(VERSION);
+   }
+
+   /**
+    * 
+    * Appends entry, keys have to come in sorted order for the front coding to pay off.
+    * 
+    * @param type
+    *           one of ConfigSnapshot.TYPE_*
+    */
+   public void write(String key, int type, String value) throws IOException {
+      int dot = key.indexOf('.');
+      String keySection = dot == -1 ? key : key.substring(0, dot);
+      if (!keySection.equals(section)) {
+         endSection();
+         section = keySection;
+         indexNames.add(section);
+         indexOffsets.add(flushed + buffered);
+         writeByte(SECTION);
+         writeString(section);
+      }
+      byte[] keyBytes = key.getBytes(UTF8);
+      int shared = 0;
+      int max = Math.min(keyBytes.length, previousKey.length);
+      while (shared < max && keyBytes[shared] == previousKey[shared]) {
+         shared++;
+      }
+      writeVarLong(shared + 1);
+      writeVarLong(keyBytes.length - shared);
+      writeBytes(keyBytes, shared, keyBytes.length - shared);
+      previousKey = keyBytes;
+      writeByte(type);
+      Integer id = valueIds.get(value);
+      if (id == null) {
+         writeVarLong(0);
+         writeString(value);
+         valueIds.put(value, valueIds.size());
+      } else {
+         writeVarLong(id + 1);
+      }
+      entryCount++;
+   }
+
+   private void endSection() throws IOException {
+      if (section != null) {
+         writeVarLong(0);
+         indexCounts.add(entryCount);
+         section = null;
+         previousKey = new byte[0];
+         valueIds.clear();
+         entryCount = 0;
+      }
+   }
+
+   /**
+    * 
+    * Writes the section index and the checksum and closes the stream.
+    */
+   public void close() throws IOException {
+      endSection();
+      writeByte(END);
+      long indexOffset = flushed + buffered;
+      writeVarLong(indexNames.size());
+      for (int i = 0; i < indexNames.size(); i++) {
+         writeString(indexNames.get(i));
+         writeVarLong(indexOffsets.get(i));
+         writeVarLong(indexCounts.get(i));
+      }
+      writeInt((int) (indexOffset >>> 32));
+      writeInt((int) indexOffset);
+      flush();
+      int checksum = (int) crc.getValue();
+      writeInt(checksum);
+      out.write(buffer, 0, buffered);
+      out.close();
+   }
+
+   private void flush() throws IOException {
+      crc.update(buffer, 0, buffered);
+      out.write(buffer, 0, buffered);
+      flushed += buffered;
+      buffered = 0;
+   }
+
+   private void writeByte(int b) throws IOException {
+      if (buffered == buffer.length) {
+         flush();
+      }
+      buffer[buffered++] = (byte) b;
+   }
+
+   private void writeBytes(byte[] b, int offset, int length) throws IOException {
+      if (buffered + length > buffer.length) {
+         flush();
+         if (length > buffer.length) {
+            crc.update(b, offset, length);
+            out.write(b, offset, length);
+            flushed += length;
+            return;
+         }
+      }
+      System.arraycopy(b, offset, buffer, buffered, length);
+      buffered += length;
+   }
+
+   private void writeInt(int v) throws IOException {
+      writeByte(v >>> 24);
+      writeByte((v >>> 16) & 0xff);
+      writeByte((v >>> 8) & 0xff);
+      writeByte(v & 0xff);
+   }
+
+   private void writeVarLong(long v) throws IOException {
+      while ((v & ~0x7fL) != 0) {
+         writeByte((int) ((v & 0x7f) | 0x80));
+         v >>>= 7;
+      }
+      writeByte((int) v);
+   }
+
+   private void writeString(String s) throws IOException {
+      byte[] bytes = s.getBytes(UTF8);
+      writeVarLong(bytes.length);
+      writeBytes(bytes, 0, bytes.length);
+   }
+}
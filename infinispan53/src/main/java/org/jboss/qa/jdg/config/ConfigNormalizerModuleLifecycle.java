@@ -32,14 +32,39 @@ import org.infinispan.lifecycle.AbstractModuleLifecycle;
  */
 public class ConfigNormalizerModuleLifecycle extends AbstractModuleLifecycle {
 
+   /**
+    * System property that turns the module off, nothing is registered.
+    */
+   public static final String PROP_DISABLED = "org.jboss.qa.jdg.config.disabled";
+
+   private static final boolean enabled = !Boolean.getBoolean(PROP_DISABLED);
+
    @Override
    public void cacheManagerStarting(GlobalComponentRegistry gcr, GlobalConfiguration globalConfiguration) {
-      ConfigNormalizerService.INSTANCE.registerCacheManager(gcr, globalConfiguration);
+      if (enabled) {
+         ConfigNormalizerService.INSTANCE.registerCacheManager(gcr, globalConfiguration);
+      }
+   }
+
+   @Override
+   public void cacheManagerStopping(GlobalComponentRegistry gcr) {
+      if (enabled) {
+         ConfigNormalizerService.INSTANCE.unregisterCacheManager(gcr);
+      }
    }
 
    @Override
    public void cacheStarting(ComponentRegistry cr, org.infinispan.configuration.cache.Configuration configuration, String cacheName) {
-      ConfigNormalizerService.INSTANCE.registerCache(cr, configuration, cacheName);
+      if (enabled) {
+         ConfigNormalizerService.INSTANCE.registerCache(cr, configuration, cacheName);
+      }
+   }
+
+   @Override
+   public void cacheStopping(ComponentRegistry cr, String cacheName) {
+      if (enabled) {
+         ConfigNormalizerService.INSTANCE.unregisterCache(cr, cacheName);
+      }
    }
 
 }
@@ -18,13 +18,39 @@
  */
 package org.jboss.qa.jdg.config;
 
+import java.io.File;
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanRegistration;
 import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
+import javax.management.ReflectionException;
 
 import org.infinispan.configuration.cache.Configuration;
 import org.infinispan.configuration.global.GlobalConfiguration;
@@ -47,6 +73,53 @@ public class ConfigNormalizerService {
 
    public static final ConfigNormalizerService INSTANCE = new ConfigNormalizerService();
 
+   /**
+    * Emitted when a cache is registered, user data contains the cache name and config fingerprint.
+    */
+   public static final String NOTIFICATION_CACHE_REGISTERED = "org.jboss.qa.jdg.config.cache.registered";
+
+   /**
+    * Emitted when a cache is unregistered, user data contains the cache name and last known
+    * fingerprint.
+    */
+   public static final String NOTIFICATION_CACHE_UNREGISTERED = "org.jboss.qa.jdg.config.cache.unregistered";
+
+   /**
+    * Emitted when a recomputed snapshot of a section (global, jgroups or cache.&lt;name&gt;) differs
+    * from the previous one, user data contains the fingerprints and the delta.
+    */
+   public static final String NOTIFICATION_CONFIG_CHANGED = "org.jboss.qa.jdg.config.changed";
+
+   /**
+    * Value of a delta entry for a key that is no longer present.
+    */
+   public static final String DELTA_REMOVED = "<removed>";
+
+   /**
+    * System property that turns on registration of one MBean per cache.
+    */
+   public static final String PROP_CACHE_MBEANS = "org.jboss.qa.jdg.config.cacheMBeans";
+
+   /**
+    * System property with a directory, when set the configuration of every starting cache is
+    * appended to &lt;dir&gt;/&lt;manager&gt;.properties in background.
+    */
+   public static final String PROP_SNAPSHOT_DIR = "org.jboss.qa.jdg.config.snapshotDir";
+
+   /**
+    * System property with the maximum number of caches waiting to be written to the snapshot dir.
+    */
+   public static final String PROP_SNAPSHOT_QUEUE_SIZE = "org.jboss.qa.jdg.config.snapshotQueueSize";
+
+   /**
+    * System property that makes managers keep the snapshots they retain, properties of the per cache
+    * MBeans and the section snapshots compared for change notifications, in direct memory instead
+    * of heap.
+    */
+   public static final String PROP_OFF_HEAP_SNAPSHOTS = "org.jboss.qa.jdg.config.offHeapSnapshots";
+
+   static final int MAX_DELTA_ENTRIES = 100;
+
    public interface CacheManagerDataMBean {
       /**
        * 
@@ -73,6 +146,106 @@ public class ConfigNormalizerService {
        */
       Properties getNormalizedConfigCache(String cacheName);
 
+      /**
+       * 
+       * @return configuration properties that differ from defaults of a freshly built configuration
+       */
+      Properties getNormalizedConfigNonDefault();
+
+      /**
+       * 
+       * @param cacheName
+       * @return Config properties for specific cache that differ from ConfigurationBuilder defaults
+       */
+      Properties getNormalizedConfigCacheNonDefault(String cacheName);
+
+      /**
+       * 
+       * Saves the non-default properties of this cache manager to a standard properties file.
+       * 
+       * @param file
+       */
+      void saveSortedPropertiesNonDefault(String file);
+
+      /**
+       * 
+       * Saves the non-default properties of this cache manager to a XML file.
+       * 
+       * @param file
+       */
+      void saveSortedXMLNonDefault(String file);
+
+      /**
+       * 
+       * @return configuration properties where each distinct cache configuration is present only
+       *         once under template.&lt;id&gt; and template.&lt;id&gt;.caches lists the caches sharing it
+       */
+      Properties getNormalizedConfigDeduplicated();
+
+      /**
+       * 
+       * Normalizes the whole configuration within the given time, getters that don't return in
+       * time and everything left after the deadline is output as &lt;timeout&gt;.
+       * 
+       * @param timeoutMillis
+       *           overall deadline, 0 for none
+       * @param getterTimeoutMillis
+       *           timeout of a single getter, 0 for none
+       * @return partial configuration properties
+       */
+      Properties getNormalizedConfigBounded(long timeoutMillis, long getterTimeoutMillis);
+
+      /**
+       * 
+       * Saves properties normalized within the given time to a standard properties file.
+       * 
+       * @param file
+       * @param timeoutMillis
+       * @param getterTimeoutMillis
+       */
+      void saveSortedPropertiesBounded(String file, long timeoutMillis, long getterTimeoutMillis);
+
+      /**
+       * 
+       * Saves properties normalized within the given time to a XML file.
+       * 
+       * @param file
+       * @param timeoutMillis
+       * @param getterTimeoutMillis
+       */
+      void saveSortedXMLBounded(String file, long timeoutMillis, long getterTimeoutMillis);
+
+      /**
+       * 
+       * @return number of subtree memo lookups while normalizing all caches of this manager by
+       *         getNormalizedConfig and getNormalizedConfigBounded, see
+       *         {@link SubtreeStats#getLookupCount()}
+       */
+      long getSubtreeLookupCount();
+
+      /**
+       * 
+       * @return number of subtrees of this manager copied from the memo instead of being reflected
+       *         again
+       */
+      long getSubtreeHitCount();
+
+      /**
+       * 
+       * Saves the deduplicated properties of this cache manager to a standard properties file.
+       * 
+       * @param file
+       */
+      void saveSortedPropertiesDeduplicated(String file);
+
+      /**
+       * 
+       * Saves the deduplicated properties of this cache manager to a XML file.
+       * 
+       * @param file
+       */
+      void saveSortedXMLDeduplicated(String file);
+
       /**
        * 
        * Saves the properties of this cache manager to a standard properties file.
@@ -89,6 +262,26 @@ public class ConfigNormalizerService {
        */
       void saveSortedXML(String file);
 
+      /**
+       * 
+       * Saves the properties of this cache manager to a binary snapshot file, see
+       * BinarySnapshotWriter.
+       * 
+       * @param file
+       */
+      void saveSortedBinary(String file);
+
+      /**
+       * 
+       * Saves the properties of this cache manager to a JSON file, numbers and booleans are
+       * written as JSON numbers and literals.
+       * 
+       * @param file
+       * @param nested
+       *           split keys on dots into nested objects
+       */
+      void saveSortedJSON(String file, boolean nested);
+
       /**
        * 
        * Saves the global config.
@@ -136,43 +329,581 @@ public class ConfigNormalizerService {
        * @param file
        */
       void saveSortedXMLCache(String file, String cacheName);
+
+      /**
+       * 
+       * @return number of notifications dropped because the notification queue was full
+       */
+      long getDroppedNotificationCount();
+
+      /**
+       * 
+       * @return number of caches waiting to be written to the snapshot dir
+       */
+      int getSnapshotQueueDepth();
+
+      /**
+       * 
+       * @return age of the oldest cache waiting to be written to the snapshot dir in milliseconds,
+       *         or lag of the last written batch
+       */
+      long getSnapshotLagMillis();
+
+      /**
+       * 
+       * @return number of caches not written to the snapshot dir because the queue was full
+       */
+      long getDroppedSnapshotCount();
+
+      /**
+       * 
+       * @return number of queued caches that replaced a pending snapshot of the same cache
+       */
+      long getCoalescedSnapshotCount();
+
+      /**
+       * 
+       * @return number of caches written to the snapshot dir
+       */
+      long getWrittenSnapshotCount();
+   }
+
+   /**
+    * 
+    * Per cache MBean that exposes normalized config properties as individual read-only attributes.
+    * The properties are computed on first access (attribute or MBeanInfo after registration) and
+    * cached until refresh is invoked, so registering the MBean costs almost nothing. With
+    * PROP_OFF_HEAP_SNAPSHOTS they are cached in an OffHeapSnapshot.
+    * 
+    */
+   private static class CacheData implements DynamicMBean, MBeanRegistration {
+      private String cacheName;
+      private Configuration configuration;
+      private volatile boolean registered;
+      private boolean offHeap;
+      private volatile Properties properties;
+      private volatile OffHeapSnapshot offHeapProperties;
+      private volatile MBeanInfo info;
+
+      public CacheData(String cacheName, Configuration configuration, boolean offHeap) {
+         this.cacheName = cacheName;
+         this.configuration = configuration;
+         this.offHeap = offHeap;
+      }
+
+      private Properties reflectProperties() {
+         try {
+            return ConfigNormalizer.reflectProperties(configuration, "");
+         } catch (Exception e) {
+            log.error("Error while reflecting properties for cache: " + cacheName, e);
+            return new Properties();
+         }
+      }
+
+      private Properties getProperties() {
+         Properties p = properties;
+         if (p == null) {
+            synchronized (this) {
+               p = properties;
+               if (p == null) {
+                  p = reflectProperties();
+                  properties = p;
+               }
+            }
+         }
+         return p;
+      }
+
+      private OffHeapSnapshot getOffHeapProperties() {
+         OffHeapSnapshot p = offHeapProperties;
+         if (p == null) {
+            synchronized (this) {
+               p = offHeapProperties;
+               if (p == null) {
+                  p = OffHeapSnapshot.create(reflectProperties());
+                  offHeapProperties = p;
+               }
+            }
+         }
+         return p;
+      }
+
+      private String getValue(String attribute) {
+         return offHeap ? getOffHeapProperties().get(attribute) : getProperties().getProperty(attribute);
+      }
+
+      private TreeSet<String> getKeys() {
+         if (!offHeap) {
+            return new TreeSet<String>(getProperties().stringPropertyNames());
+         }
+         OffHeapSnapshot p = getOffHeapProperties();
+         TreeSet<String> keys = new TreeSet<String>();
+         for (int i = 0; i < p.size(); i++) {
+            keys.add(p.getKey(i));
+         }
+         return keys;
+      }
+
+      @Override
+      public Object getAttribute(String attribute) throws AttributeNotFoundException {
+         String value = getValue(attribute);
+         if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+         }
+         return value;
+      }
+
+      @Override
+      public AttributeList getAttributes(String[] attributes) {
+         AttributeList list = new AttributeList();
+         for (String attribute : attributes) {
+            String value = getValue(attribute);
+            if (value != null) {
+               list.add(new Attribute(attribute, value));
+            }
+         }
+         return list;
+      }
+
+      @Override
+      public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+         throw new AttributeNotFoundException("Attribute " + attribute.getName() + " is read-only");
+      }
+
+      @Override
+      public AttributeList setAttributes(AttributeList attributes) {
+         return new AttributeList();
+      }
+
+      @Override
+      public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+         if ("refresh".equals(actionName)) {
+            synchronized (this) {
+               properties = null;
+               // replaced, not recycled, a concurrent JMX call may still be reading the buffer
+               offHeapProperties = null;
+               info = null;
+            }
+            return null;
+         }
+         throw new ReflectionException(new NoSuchMethodException(actionName));
+      }
+
+      @Override
+      public MBeanInfo getMBeanInfo() {
+         String description = "Normalized configuration of cache " + cacheName;
+         if (!registered) {
+            // called by the MBean server during registration, don't compute anything yet
+            return new MBeanInfo(getClass().getName(), description, null, null, null, null);
+         }
+         MBeanInfo i = info;
+         if (i == null) {
+            TreeSet<String> keys = getKeys();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[keys.size()];
+            int idx = 0;
+            for (String key : keys) {
+               attributes[idx++] = new MBeanAttributeInfo(key, String.class.getName(), key, true, false, false);
+            }
+            MBeanOperationInfo refresh = new MBeanOperationInfo("refresh", "Recompute the normalized properties", new MBeanParameterInfo[0],
+                  "void", MBeanOperationInfo.ACTION);
+            i = new MBeanInfo(getClass().getName(), description, attributes, null, new MBeanOperationInfo[] { refresh }, null);
+            info = i;
+         }
+         return i;
+      }
+
+      @Override
+      public ObjectName preRegister(MBeanServer server, ObjectName name) {
+         return name;
+      }
+
+      @Override
+      public void postRegister(Boolean registrationDone) {
+         registered = registrationDone.booleanValue();
+      }
+
+      @Override
+      public void preDeregister() {
+      }
+
+      @Override
+      public void postDeregister() {
+         registered = false;
+      }
    }
 
-   private static class CacheManagerData implements CacheManagerDataMBean {
+   private static class Snapshot {
+      private final String fingerprint;
+      private final Properties properties;
+      private final OffHeapSnapshot offHeap;
+
+      public Snapshot(String fingerprint, Properties properties, boolean offHeap, OffHeapSnapshot recycled) {
+         this.fingerprint = fingerprint;
+         this.properties = offHeap ? null : properties;
+         this.offHeap = offHeap ? OffHeapSnapshot.create(properties, recycled) : null;
+      }
+   }
+
+   private static class CacheManagerData extends NotificationBroadcasterSupport implements CacheManagerDataMBean {
       private String cacheManagerName;
       private GlobalComponentRegistry globalComponentRegistry;
       private GlobalConfiguration globalConfiguration;
-      private Map<String, Configuration> configByCacheName = new HashMap<String, Configuration>();
+      private Map<String, Configuration> configByCacheName = new ConcurrentHashMap<String, Configuration>();
       private JChannel jgroupsChannel;
+      private NotificationDispatcher notifier;
+      private boolean cacheMBeans;
+      private boolean offHeapSnapshots;
+      private SnapshotWriter snapshotWriter;
+      // MBeans are registered by the notifier thread, see syncMBeans
+      private AtomicBoolean mbeanSyncScheduled = new AtomicBoolean();
+      private ObjectName objectName;
+      private volatile boolean stopped;
+      private Map<String, CacheData> cacheDataByCacheName = new HashMap<String, CacheData>();
+      private Map<String, ObjectName> cacheObjectNames = new HashMap<String, ObjectName>();
+      private Object notificationSource = this;
+      private AtomicLong notificationSequence = new AtomicLong();
+      private List<NotificationListener> listeners = new CopyOnWriteArrayList<NotificationListener>();
+      // written only by the notifier thread
+      private Map<String, Snapshot> snapshotBySection = new ConcurrentHashMap<String, Snapshot>();
+      // last replaced off heap section snapshot, its buffer is reused by the next one
+      private OffHeapSnapshot recycledSnapshot;
+      private SubtreeStats subtreeStats = new SubtreeStats();
 
-      public CacheManagerData(GlobalComponentRegistry globalComponentRegistry, GlobalConfiguration globalConfiguration) {
+      public CacheManagerData(GlobalComponentRegistry globalComponentRegistry, GlobalConfiguration globalConfiguration, NotificationDispatcher notifier,
+            boolean cacheMBeans, boolean offHeapSnapshots, SnapshotWriter snapshotWriter) {
          this.globalComponentRegistry = globalComponentRegistry;
          this.globalConfiguration = globalConfiguration;
+         this.notifier = notifier;
+         this.cacheMBeans = cacheMBeans;
+         this.offHeapSnapshots = offHeapSnapshots;
+         this.snapshotWriter = snapshotWriter;
          this.cacheManagerName = getCacheManagerName(globalComponentRegistry, globalConfiguration);
+      }
+
+      /**
+       * 
+       * Schedules registration of the manager MBean and synchronization of per cache MBeans on the
+       * notifier thread. Many calls before the task runs are coalesced into one.
+       */
+      public void scheduleMBeanSync() {
+         if (mbeanSyncScheduled.compareAndSet(false, true)) {
+            Runnable task = new Runnable() {
+               @Override
+               public void run() {
+                  mbeanSyncScheduled.set(false);
+                  syncMBeans();
+               }
+            };
+            // MBeans must not get lost when the queue is full of notifications
+            notifier.dispatchReliably(task);
+         }
+      }
+
+      private synchronized void syncMBeans() {
          MBeanServer server = ManagementFactory.getPlatformMBeanServer();
-         try {
-            server.registerMBean(this, new ObjectName("jboss.infinispan:type=CacheManager,name=\"" + cacheManagerName + "\",component=ConfigNormalizer"));
-         } catch (Exception e) {
-            log.error("Couldn't register MBean for cache manager " + cacheManagerName, e);
+         if (stopped) {
+            for (String cacheName : new ArrayList<String>(cacheDataByCacheName.keySet())) {
+               unregisterCacheMBean(cacheName);
+            }
+            if (objectName != null) {
+               try {
+                  server.unregisterMBean(objectName);
+               } catch (Exception e) {
+                  log.error("Couldn't unregister MBean for cache manager " + cacheManagerName, e);
+               }
+               objectName = null;
+            }
+            return;
+         }
+         if (objectName == null) {
+            try {
+               ObjectName name = new ObjectName("jboss.infinispan:type=CacheManager,name=\"" + cacheManagerName + "\",component=ConfigNormalizer");
+               server.registerMBean(this, name);
+               objectName = name;
+               notificationSource = name;
+            } catch (Exception e) {
+               log.error("Couldn't register MBean for cache manager " + cacheManagerName, e);
+            }
+         }
+         if (!cacheMBeans) {
+            return;
+         }
+         for (String cacheName : new ArrayList<String>(cacheDataByCacheName.keySet())) {
+            CacheData data = cacheDataByCacheName.get(cacheName);
+            if (configByCacheName.get(cacheName) != data.configuration) {
+               unregisterCacheMBean(cacheName);
+            }
+         }
+         for (Map.Entry<String, Configuration> ent : configByCacheName.entrySet()) {
+            if (!cacheDataByCacheName.containsKey(ent.getKey())) {
+               registerCacheMBean(ent.getKey(), ent.getValue());
+            }
          }
       }
 
       @Override
       public Properties getNormalizedConfig() {
          try {
-            if (jgroupsChannel == null) {
-               jgroupsChannel = getChannel(globalComponentRegistry);
-            }
-
-            return ConfigNormalizer.reflectProperties(globalConfiguration, configByCacheName, jgroupsChannel);
+            return getNormalizedSnapshot().toProperties();
          } catch (Exception e) {
             log.error("Error while reflecting properties for manager: " + cacheManagerName, e);
             return new Properties();
          }
       }
 
-      public void addCacheConfiguration(String cacheName, Configuration configuration) {
+      /**
+       * 
+       * Reflects all caches in one run, so objects shared between caches are reflected once. The
+       * sections are then handed over for change notifications one by one.
+       */
+      private ConfigSnapshot getNormalizedSnapshot() throws Exception {
+         if (jgroupsChannel == null) {
+            jgroupsChannel = getChannel(globalComponentRegistry);
+         }
+         Map<String, Configuration> caches = new LinkedHashMap<String, Configuration>(configByCacheName);
+         ConfigSnapshot snapshot = ConfigNormalizer.reflectSnapshot(globalConfiguration, caches, jgroupsChannel, subtreeStats);
+         if (!listeners.isEmpty()) {
+            recomputedSections(snapshot, caches.keySet());
+         }
+         return snapshot;
+      }
+
+      /**
+       * 
+       * Splits the snapshot into sections global, cache.&lt;name&gt; and jgroups with keys relative
+       * to the section and passes each to {@link #recomputed(String, String, Properties)}.
+       */
+      private void recomputedSections(ConfigSnapshot snapshot, Set<String> cacheNames) {
+         Map<String, Properties> sections = new LinkedHashMap<String, Properties>();
+         sections.put("global", new Properties());
+         for (String cacheName : cacheNames) {
+            sections.put("cache." + cacheName, new Properties());
+         }
+         if (jgroupsChannel != null) {
+            sections.put("jgroups", new Properties());
+         }
+         for (int i = 0; i < snapshot.size(); i++) {
+            String key = snapshot.getKey(i);
+            int dot = key.indexOf('.');
+            while (true) {
+               String section = dot < 0 ? key : key.substring(0, dot);
+               Properties p = sections.get(section);
+               if (p != null) {
+                  p.put(dot < 0 ? "" : key.substring(dot + 1), snapshot.getString(i));
+                  break;
+               }
+               if (dot < 0) {
+                  break;
+               }
+               dot = key.indexOf('.', dot + 1);
+            }
+         }
+         for (Map.Entry<String, Properties> ent : sections.entrySet()) {
+            String section = ent.getKey();
+            recomputed(section, section.startsWith("cache.") ? section.substring("cache.".length()) : null, ent.getValue());
+         }
+      }
+
+      public void stop() {
+         stopped = true;
+         configByCacheName.clear();
+         scheduleMBeanSync();
+      }
+
+      public void addCacheConfiguration(final String cacheName, final Configuration configuration) {
          configByCacheName.put(cacheName, configuration);
+         if (cacheMBeans) {
+            scheduleMBeanSync();
+         }
+         if (snapshotWriter != null) {
+            snapshotWriter.enqueue(cacheManagerName, cacheName, configuration);
+         }
+         if (!listeners.isEmpty()) {
+            notifier.dispatch(new Runnable() {
+               @Override
+               public void run() {
+                  try {
+                     updateSnapshot(NOTIFICATION_CACHE_REGISTERED, "cache." + cacheName, cacheName, ConfigNormalizer.reflectProperties(configuration, ""));
+                  } catch (Exception e) {
+                     log.error("Error while reflecting properties of cache " + cacheName + " for manager: " + cacheManagerName, e);
+                  }
+               }
+            });
+         }
+      }
+
+      public void removeCacheConfiguration(final String cacheName) {
+         configByCacheName.remove(cacheName);
+         if (cacheMBeans) {
+            scheduleMBeanSync();
+         }
+         if (!listeners.isEmpty() || snapshotBySection.containsKey("cache." + cacheName)) {
+            notifier.dispatch(new Runnable() {
+               @Override
+               public void run() {
+                  updateSnapshot(NOTIFICATION_CACHE_UNREGISTERED, "cache." + cacheName, cacheName, null);
+               }
+            });
+         }
+      }
+
+      private void registerCacheMBean(String cacheName, Configuration configuration) {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         try {
+            ObjectName cacheObjectName = new ObjectName("jboss.infinispan:type=CacheManager,name=\"" + cacheManagerName
+                  + "\",component=ConfigNormalizer,cache=" + ObjectName.quote(cacheName));
+            if (server.isRegistered(cacheObjectName)) {
+               server.unregisterMBean(cacheObjectName);
+            }
+            CacheData data = new CacheData(cacheName, configuration, offHeapSnapshots);
+            server.registerMBean(data, cacheObjectName);
+            cacheDataByCacheName.put(cacheName, data);
+            cacheObjectNames.put(cacheName, cacheObjectName);
+         } catch (Exception e) {
+            log.error("Couldn't register MBean for cache " + cacheName + " of manager " + cacheManagerName, e);
+         }
+      }
+
+      private void unregisterCacheMBean(String cacheName) {
+         cacheDataByCacheName.remove(cacheName);
+         ObjectName cacheObjectName = cacheObjectNames.remove(cacheName);
+         if (cacheObjectName != null) {
+            try {
+               ManagementFactory.getPlatformMBeanServer().unregisterMBean(cacheObjectName);
+            } catch (Exception e) {
+               log.error("Couldn't unregister MBean for cache " + cacheName + " of manager " + cacheManagerName, e);
+            }
+         }
+      }
+
+      /**
+       * 
+       * Hands a freshly computed section snapshot over to the notifier thread which compares it
+       * with the previous one.
+       */
+      private Properties recomputed(final String section, final String cacheName, final Properties properties) {
+         if (!listeners.isEmpty()) {
+            notifier.dispatch(new Runnable() {
+               @Override
+               public void run() {
+                  updateSnapshot(NOTIFICATION_CONFIG_CHANGED, section, cacheName, properties);
+               }
+            });
+         }
+         return properties;
+      }
+
+      private void updateSnapshot(String type, String section, String cacheName, Properties properties) {
+         try {
+            Snapshot previous = snapshotBySection.get(section);
+            Snapshot current = null;
+            if (properties == null) {
+               snapshotBySection.remove(section);
+            } else {
+               String fingerprint = ConfigNormalizer.fingerprint(properties);
+               if (previous != null && previous.fingerprint.equals(fingerprint)) {
+                  // unchanged, no need to copy the same entries again
+                  current = previous;
+               } else {
+                  current = new Snapshot(fingerprint, properties, offHeapSnapshots, recycledSnapshot);
+                  recycledSnapshot = null;
+                  snapshotBySection.put(section, current);
+               }
+            }
+            if (NOTIFICATION_CONFIG_CHANGED.equals(type) && (previous == null || previous.fingerprint.equals(current.fingerprint))) {
+               return;
+            }
+            Properties userData = new Properties();
+            userData.put("section", section);
+            if (cacheName != null) {
+               userData.put("cacheName", cacheName);
+            }
+            if (current != null) {
+               userData.put("fingerprint", current.fingerprint);
+            }
+            if (previous != null) {
+               userData.put("previousFingerprint", previous.fingerprint);
+               if (current != null && current.offHeap != null && previous.offHeap != null) {
+                  putDelta(userData, previous.offHeap, current.offHeap);
+               } else if (current != null) {
+                  putDelta(userData, previous.properties != null ? previous.properties : previous.offHeap.toProperties(),
+                        current.properties != null ? current.properties : current.offHeap.toProperties());
+               }
+               if (previous != current && previous.offHeap != null) {
+                  // only the notifier thread reads section snapshots and it's done with this one
+                  recycledSnapshot = previous.offHeap;
+               }
+            }
+            String message;
+            if (NOTIFICATION_CACHE_REGISTERED.equals(type)) {
+               message = "Cache " + cacheName + " registered";
+            } else if (NOTIFICATION_CACHE_UNREGISTERED.equals(type)) {
+               message = "Cache " + cacheName + " unregistered";
+            } else {
+               message = "Configuration of " + section + " changed";
+            }
+            Notification n = new Notification(type, notificationSource, notificationSequence.incrementAndGet(), System.currentTimeMillis(), message);
+            n.setUserData(userData);
+            sendNotification(n);
+         } catch (Exception e) {
+            log.error("Error while sending notification for " + section + " of manager: " + cacheManagerName, e);
+         }
+      }
+
+      @Override
+      public void addNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback) {
+         super.addNotificationListener(listener, filter, handback);
+         listeners.add(listener);
+      }
+
+      @Override
+      public void removeNotificationListener(NotificationListener listener) throws ListenerNotFoundException {
+         super.removeNotificationListener(listener);
+         while (listeners.remove(listener)) {
+            // remove all registrations
+         }
+      }
+
+      @Override
+      public void removeNotificationListener(NotificationListener listener, NotificationFilter filter, Object handback) throws ListenerNotFoundException {
+         super.removeNotificationListener(listener, filter, handback);
+         listeners.remove(listener);
+      }
+
+      @Override
+      public MBeanNotificationInfo[] getNotificationInfo() {
+         return new MBeanNotificationInfo[] { new MBeanNotificationInfo(new String[] { NOTIFICATION_CACHE_REGISTERED, NOTIFICATION_CACHE_UNREGISTERED,
+               NOTIFICATION_CONFIG_CHANGED }, Notification.class.getName(), "Cache registration and normalized configuration changes") };
+      }
+
+      @Override
+      public long getDroppedNotificationCount() {
+         return notifier.getDroppedCount();
+      }
+
+      @Override
+      public int getSnapshotQueueDepth() {
+         return snapshotWriter == null ? 0 : snapshotWriter.getQueueDepth();
+      }
+
+      @Override
+      public long getSnapshotLagMillis() {
+         return snapshotWriter == null ? 0 : snapshotWriter.getLagMillis();
+      }
+
+      @Override
+      public long getDroppedSnapshotCount() {
+         return snapshotWriter == null ? 0 : snapshotWriter.getDroppedCount();
+      }
+
+      @Override
+      public long getCoalescedSnapshotCount() {
+         return snapshotWriter == null ? 0 : snapshotWriter.getCoalescedCount();
+      }
+
+      @Override
+      public long getWrittenSnapshotCount() {
+         return snapshotWriter == null ? 0 : snapshotWriter.getWrittenCount();
       }
 
       private JChannel getChannel(GlobalComponentRegistry globalComponentRegistry) {
@@ -210,10 +941,147 @@ public class ConfigNormalizerService {
          }
       }
 
+      @Override
+      public void saveSortedBinary(String file) {
+         try {
+            ConfigNormalizer.store("binary", getNormalizedSnapshot(), file);
+         } catch (Exception e) {
+            log.error("Error saving config properties of chache manager " + cacheManagerName + " to file " + file, e);
+         }
+      }
+
+      @Override
+      public void saveSortedJSON(String file, boolean nested) {
+         try {
+            ConfigNormalizer.store(nested ? "json-nested" : "json", getNormalizedSnapshot(), file);
+         } catch (Exception e) {
+            log.error("Error saving config properties of chache manager " + cacheManagerName + " to file " + file, e);
+         }
+      }
+
+      @Override
+      public Properties getNormalizedConfigNonDefault() {
+         try {
+            if (jgroupsChannel == null) {
+               jgroupsChannel = getChannel(globalComponentRegistry);
+            }
+            return ConfigNormalizer.reflectNonDefaultProperties(globalConfiguration, configByCacheName, jgroupsChannel);
+         } catch (Exception e) {
+            log.error("Error while reflecting properties for manager: " + cacheManagerName, e);
+            return new Properties();
+         }
+      }
+
+      @Override
+      public Properties getNormalizedConfigCacheNonDefault(String cacheName) {
+         try {
+            Configuration config = configByCacheName.get(cacheName);
+            if (config == null) {
+               log.error("Error while reflecting properties for manager: " + cacheManagerName + ": config not found.");
+               return new Properties();
+            }
+            return ConfigNormalizer.reflectNonDefaultProperties(config, "");
+         } catch (Exception e) {
+            log.error("Error while reflecting properties for manager: " + cacheManagerName, e);
+            return new Properties();
+         }
+      }
+
+      @Override
+      public void saveSortedPropertiesNonDefault(String file) {
+         try {
+            ConfigNormalizer.storeSortedProperties(getNormalizedConfigNonDefault(), file);
+         } catch (Exception e) {
+            log.error("Error saving config properties of chache manager " + cacheManagerName + " to file " + file, e);
+         }
+      }
+
+      @Override
+      public void saveSortedXMLNonDefault(String file) {
+         try {
+            ConfigNormalizer.storeSortedPropertiesAsXML(getNormalizedConfigNonDefault(), file);
+         } catch (Exception e) {
+            log.error("Error saving config properties of chache manager " + cacheManagerName + " to file " + file, e);
+         }
+      }
+
+      @Override
+      public Properties getNormalizedConfigDeduplicated() {
+         try {
+            if (jgroupsChannel == null) {
+               jgroupsChannel = getChannel(globalComponentRegistry);
+            }
+            return ConfigNormalizer.reflectDeduplicatedProperties(globalConfiguration, configByCacheName, jgroupsChannel, false);
+         } catch (Exception e) {
+            log.error("Error while reflecting properties for manager: " + cacheManagerName, e);
+            return new Properties();
+         }
+      }
+
+      @Override
+      public void saveSortedPropertiesDeduplicated(String file) {
+         try {
+            ConfigNormalizer.storeSortedProperties(getNormalizedConfigDeduplicated(), file);
+         } catch (Exception e) {
+            log.error("Error saving config properties of chache manager " + cacheManagerName + " to file " + file, e);
+         }
+      }
+
+      @Override
+      public void saveSortedXMLDeduplicated(String file) {
+         try {
+            ConfigNormalizer.storeSortedPropertiesAsXML(getNormalizedConfigDeduplicated(), file);
+         } catch (Exception e) {
+            log.error("Error saving config properties of chache manager " + cacheManagerName + " to file " + file, e);
+         }
+      }
+
+      @Override
+      public Properties getNormalizedConfigBounded(long timeoutMillis, long getterTimeoutMillis) {
+         try {
+            if (jgroupsChannel == null) {
+               jgroupsChannel = getChannel(globalComponentRegistry);
+            }
+            return ConfigNormalizer.reflectSnapshot(globalConfiguration, configByCacheName, jgroupsChannel, timeoutMillis, getterTimeoutMillis, subtreeStats)
+                  .toProperties();
+         } catch (Exception e) {
+            log.error("Error while reflecting properties for manager: " + cacheManagerName, e);
+            return new Properties();
+         }
+      }
+
+      @Override
+      public void saveSortedPropertiesBounded(String file, long timeoutMillis, long getterTimeoutMillis) {
+         try {
+            ConfigNormalizer.storeSortedProperties(getNormalizedConfigBounded(timeoutMillis, getterTimeoutMillis), file);
+         } catch (Exception e) {
+            log.error("Error saving config properties of chache manager " + cacheManagerName + " to file " + file, e);
+         }
+      }
+
+      @Override
+      public void saveSortedXMLBounded(String file, long timeoutMillis, long getterTimeoutMillis) {
+         try {
+            ConfigNormalizer.storeSortedPropertiesAsXML(getNormalizedConfigBounded(timeoutMillis, getterTimeoutMillis), file);
+         } catch (Exception e) {
+            log.error("Error saving config properties of chache manager " + cacheManagerName + " to file " + file, e);
+         }
+      }
+
+      @Override
+      public long getSubtreeLookupCount() {
+         return subtreeStats.getLookupCount();
+      }
+
+      @Override
+      public long getSubtreeHitCount() {
+         return subtreeStats.getHitCount();
+      }
+
       @Override
       public Properties getNormalizedConfigGlobal() {
          try {
-            return ConfigNormalizer.reflectProperties(globalConfiguration, "");
+            return recomputed("global", null, ConfigNormalizer.reflectProperties(globalConfiguration, ""));
          } catch (Exception e) {
             log.error("Error while reflecting properties for manager: " + cacheManagerName, e);
             return new Properties();
@@ -230,7 +1098,7 @@ public class ConfigNormalizerService {
                log.error("Error while reflecting properties for manager: " + cacheManagerName + ": JGroups channel not available.");
                return new Properties();
             }
-            return ConfigNormalizer.reflectProperties(jgroupsChannel, "");
+            return recomputed("jgroups", null, ConfigNormalizer.reflectProperties(jgroupsChannel, ""));
          } catch (Exception e) {
             log.error("Error while reflecting properties for manager: " + cacheManagerName, e);
             return new Properties();
@@ -245,7 +1113,7 @@ public class ConfigNormalizerService {
                log.error("Error while reflecting properties for manager: " + cacheManagerName + ": config not found.");
                return new Properties();
             }
-            return ConfigNormalizer.reflectProperties(config, "");
+            return recomputed("cache." + cacheName, cacheName, ConfigNormalizer.reflectProperties(config, ""));
          } catch (Exception e) {
             log.error("Error while reflecting properties for manager: " + cacheManagerName, e);
             return new Properties();
@@ -308,27 +1176,109 @@ public class ConfigNormalizerService {
       }
    }
 
-   private Map<GlobalComponentRegistry, CacheManagerData> dataByGCR = new HashMap<GlobalComponentRegistry, ConfigNormalizerService.CacheManagerData>();
+   private Map<GlobalComponentRegistry, CacheManagerData> dataByGCR = new ConcurrentHashMap<GlobalComponentRegistry, ConfigNormalizerService.CacheManagerData>();
+
+   private NotificationDispatcher notifier = new NotificationDispatcher(NotificationDispatcher.DEFAULT_QUEUE_SIZE);
+
+   private boolean cacheMBeans = Boolean.getBoolean(PROP_CACHE_MBEANS);
+
+   private boolean offHeapSnapshots = Boolean.getBoolean(PROP_OFF_HEAP_SNAPSHOTS);
+
+   private SnapshotWriter snapshotWriter;
 
    public ConfigNormalizerService() {
       log.info("Starting ...");
+      String snapshotDir = System.getProperty(PROP_SNAPSHOT_DIR);
+      if (snapshotDir != null) {
+         log.info("Writing config snapshots of starting caches to " + snapshotDir);
+         snapshotWriter = new SnapshotWriter(new File(snapshotDir), Integer.getInteger(PROP_SNAPSHOT_QUEUE_SIZE, SnapshotWriter.DEFAULT_QUEUE_SIZE));
+      }
 
    }
 
    private CacheManagerData createCacheManagerData(GlobalComponentRegistry globalComponentRegistry, GlobalConfiguration globalConfiguration) {
-      CacheManagerData data = new CacheManagerData(globalComponentRegistry, globalConfiguration);
+      CacheManagerData data = new CacheManagerData(globalComponentRegistry, globalConfiguration, notifier, cacheMBeans, offHeapSnapshots, snapshotWriter);
 
       return data;
    }
 
+   /**
+    * 
+    * Only records the references, the MBean is registered in background and nothing is normalized
+    * until the first query.
+    * 
+    * @param globalComponentRegistry
+    * @param globalConfiguration
+    */
    public void registerCacheManager(GlobalComponentRegistry globalComponentRegistry, GlobalConfiguration globalConfiguration) {
       String managerName = getCacheManagerName(globalComponentRegistry, globalConfiguration);
-      log.debug("Registering cache manager " + managerName + " ...");
+      if (log.isDebugEnabled()) {
+         log.debug("Registering cache manager " + managerName + " ...");
+      }
       CacheManagerData data = dataByGCR.get(globalComponentRegistry);
       if (data != null) {
          log.error("Cache manager already registered: " + managerName);
       } else {
-         dataByGCR.put(globalComponentRegistry, createCacheManagerData(globalComponentRegistry, globalConfiguration));
+         data = createCacheManagerData(globalComponentRegistry, globalConfiguration);
+         dataByGCR.put(globalComponentRegistry, data);
+         data.scheduleMBeanSync();
+      }
+   }
+
+   /**
+    * 
+    * Puts changed, added and removed keys into notification user data as delta.&lt;key&gt;, at
+    * most MAX_DELTA_ENTRIES of them in key order, deltaTruncated marks that there were more.
+    */
+   static void putDelta(Properties userData, Properties previous, Properties current) {
+      TreeSet<String> keys = new TreeSet<String>(previous.stringPropertyNames());
+      keys.addAll(current.stringPropertyNames());
+      int count = 0;
+      for (String key : keys) {
+         String oldValue = previous.getProperty(key);
+         String newValue = current.getProperty(key);
+         if (oldValue == null ? newValue == null : oldValue.equals(newValue)) {
+            continue;
+         }
+         if (count++ == MAX_DELTA_ENTRIES) {
+            userData.put("deltaTruncated", "true");
+            return;
+         }
+         userData.put("delta." + key, newValue == null ? DELTA_REMOVED : newValue);
+      }
+   }
+
+   /**
+    * 
+    * Same as putDelta of properties, walks both snapshots in key order and only creates Strings
+    * of the changed entries.
+    */
+   static void putDelta(Properties userData, OffHeapSnapshot previous, OffHeapSnapshot current) {
+      int i = 0;
+      int j = 0;
+      int count = 0;
+      while (i < previous.size() || j < current.size()) {
+         int c = i == previous.size() ? 1 : (j == current.size() ? -1 : previous.compareKey(i, current, j));
+         String key;
+         String newValue;
+         if (c < 0) {
+            key = previous.getKey(i++);
+            newValue = DELTA_REMOVED;
+         } else if (c > 0) {
+            key = current.getKey(j);
+            newValue = current.getValue(j++);
+         } else if (previous.valueEquals(i++, current, j)) {
+            j++;
+            continue;
+         } else {
+            key = current.getKey(j);
+            newValue = current.getValue(j++);
+         }
+         if (count++ == MAX_DELTA_ENTRIES) {
+            userData.put("deltaTruncated", "true");
+            return;
+         }
+         userData.put("delta." + key, newValue);
       }
    }
 
@@ -342,7 +1292,9 @@ public class ConfigNormalizerService {
    }
 
    public void registerCache(ComponentRegistry componentRegistry, Configuration configuration, String cacheName) {
-      log.debug("Registering cache " + cacheName + " ...");
+      if (log.isDebugEnabled()) {
+         log.debug("Registering cache " + cacheName + " ...");
+      }
       CacheManagerData data = dataByGCR.get(componentRegistry.getGlobalComponentRegistry());
       if (data == null) {
          log.warn("Couldn't find cache manager for cache " + cacheName);
@@ -351,4 +1303,28 @@ public class ConfigNormalizerService {
       }
    }
 
+   public void unregisterCacheManager(GlobalComponentRegistry globalComponentRegistry) {
+      CacheManagerData data = dataByGCR.remove(globalComponentRegistry);
+      if (data == null) {
+         log.warn("Cache manager not registered: GCR@" + Integer.toHexString(globalComponentRegistry.hashCode()));
+      } else {
+         if (log.isDebugEnabled()) {
+            log.debug("Unregistering cache manager " + data.cacheManagerName + " ...");
+         }
+         data.stop();
+      }
+   }
+
+   public void unregisterCache(ComponentRegistry componentRegistry, String cacheName) {
+      if (log.isDebugEnabled()) {
+         log.debug("Unregistering cache " + cacheName + " ...");
+      }
+      CacheManagerData data = dataByGCR.get(componentRegistry.getGlobalComponentRegistry());
+      if (data == null) {
+         log.warn("Couldn't find cache manager for cache " + cacheName);
+      } else {
+         data.removeCacheConfiguration(cacheName);
+      }
+   }
+
 }
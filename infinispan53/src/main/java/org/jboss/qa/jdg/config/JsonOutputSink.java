@@ -0,0 +1,132 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.text.SimpleDateFormat;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.UUID;
+
+/**
+ * 
+ * JSON written by JsonSnapshotWriter, one member per property. The nested classes are the
+ * json-nested and ndjson variants. Each ndjson line starts with the members @run and @timestamp,
+ * so that the lines appended by different runs can be told apart.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class JsonOutputSink implements OutputSink {
+
+   public static final String RUN_KEY = "@run";
+   public static final String TIMESTAMP_KEY = "@timestamp";
+
+   /**
+    * Identifies the lines written by this JVM.
+    */
+   private static final String RUN_ID = UUID.randomUUID().toString();
+
+   private final String format;
+   private final boolean nested;
+   private final boolean lines;
+   private Writer out;
+   private JsonSnapshotWriter json;
+
+   public JsonOutputSink() {
+      this("json", false, false);
+   }
+
+   protected JsonOutputSink(String format, boolean nested, boolean lines) {
+      this.format = format;
+      this.nested = nested;
+      this.lines = lines;
+   }
+
+   /**
+    * 
+    * JSON objects nested along the dotted keys.
+    */
+   public static class Nested extends JsonOutputSink {
+      public Nested() {
+         super("json-nested", true, false);
+      }
+   }
+
+   /**
+    * 
+    * JSON object on a single line appended to the file.
+    */
+   public static class Lines extends JsonOutputSink {
+      public Lines() {
+         super("ndjson", false, true);
+      }
+   }
+
+   @Override
+   public String getFormat() {
+      return format;
+   }
+
+   @Override
+   public Comparator<String> getKeyOrder() {
+      return nested ? JsonSnapshotWriter.KEY_PATH_ORDER : null;
+   }
+
+   @Override
+   public boolean isAppend() {
+      return lines;
+   }
+
+   @Override
+   public void open(WritableByteChannel channel) throws IOException {
+      out = new BufferedWriter(Channels.newWriter(channel, "UTF-8"), 65536);
+      json = new JsonSnapshotWriter(out, nested, !lines);
+      if (lines) {
+         SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+         format.setTimeZone(TimeZone.getTimeZone("UTC"));
+         json.write(RUN_KEY, ConfigSnapshot.TYPE_STRING, RUN_ID);
+         json.write(TIMESTAMP_KEY, ConfigSnapshot.TYPE_STRING, format.format(new Date()));
+      }
+   }
+
+   @Override
+   public void startSection(String section) {
+   }
+
+   @Override
+   public void entry(String key, int type, String value) throws IOException {
+      json.write(key, type, value);
+   }
+
+   @Override
+   public void endSection(String section) {
+   }
+
+   @Override
+   public void close() throws IOException {
+      json.end();
+      out.write('\n');
+      out.flush();
+   }
+}
@@ -0,0 +1,268 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jboss.logging.Logger;
+
+/**
+ * 
+ * Class plans of ConfigNormalizer persisted between runs of the CLI, so that the next run doesn't
+ * have to classify the classes it reaches and walk the hierarchies of config beans again. Kind and
+ * leaf output of a class are stored for every class, getter names only for config beans that
+ * weren't served by the generated AccessorTable, which is the case when the CLI runs against
+ * Infinispan jars of another version than it was built with (-j). The file is bound to the
+ * Infinispan version and jars it was built with: its name contains a hash of the jar paths, sizes
+ * and modification times and its header the version string, a mismatch of either discards the
+ * whole file. Entries are looked up by class name and not validated one by one, a getter that no
+ * longer resolves drops the entry and the file is rewritten at the end of the run.
+ * 
+ * File format: int magic, short format version, UTF key, UTF Infinispan version, int class count,
+ * then for each class UTF class name, byte kind, byte leaf, short getter count (-1 if getters
+ * aren't cached) and UTF getter names.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class ReflectionPlanCache {
+
+   private static Logger log = Logger.getLogger(ReflectionPlanCache.class);
+
+   private static final int MAGIC = 0x434e504c;
+   private static final short FORMAT_VERSION = 2;
+
+   private final File file;
+   private final String key;
+   private final String version;
+   private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+   private volatile boolean dirty;
+
+   /**
+    * 
+    * Plan of one class as stored in the file.
+    */
+   public static class Entry {
+      private final byte kind;
+      private final byte leaf;
+      private final String[] getters;
+
+      public Entry(int kind, int leaf, String[] getters) {
+         this.kind = (byte) kind;
+         this.leaf = (byte) leaf;
+         this.getters = getters;
+      }
+
+      public int getKind() {
+         return kind;
+      }
+
+      public int getLeaf() {
+         return leaf;
+      }
+
+      /**
+       * 
+       * @return getter names in walk order, null if the getters of the class aren't cached
+       */
+      public String[] getGetters() {
+         return getters;
+      }
+   }
+
+   public ReflectionPlanCache(File dir, String key, String version) {
+      this.file = new File(dir, "config-normalizer-plan-" + key + ".bin");
+      this.key = key;
+      this.version = version;
+   }
+
+   /**
+    * 
+    * @return per-user directory used when the cache directory isn't configured
+    */
+   public static File getDefaultDir() {
+      return new File(System.getProperty("user.home"), ".config-normalizer");
+   }
+
+   /**
+    * 
+    * Computes key of the Infinispan jars visible to the class loader and its parents.
+    * 
+    * @param classLoader
+    * @return hex encoded MD5 of the jar paths, sizes and modification times
+    * @throws Exception
+    */
+   public static String computeKey(ClassLoader classLoader) throws Exception {
+      TreeSet<String> jars = new TreeSet<String>();
+      for (ClassLoader cl = classLoader; cl != null; cl = cl.getParent()) {
+         if (cl instanceof URLClassLoader) {
+            for (URL url : ((URLClassLoader) cl).getURLs()) {
+               if ("file".equals(url.getProtocol())) {
+                  jars.add(new File(url.toURI()).getAbsolutePath());
+               }
+            }
+         }
+      }
+      for (String path : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+         if (path.length() > 0) {
+            jars.add(new File(path).getAbsolutePath());
+         }
+      }
+      MessageDigest md = MessageDigest.getInstance("MD5");
+      for (String path : jars) {
+         File f = new File(path);
+         if (f.getName().contains("infinispan") && f.getName().endsWith(".jar")) {
+            md.update((path + "|" + f.length() + "|" + f.lastModified() + "\n").getBytes("UTF-8"));
+         }
+      }
+      StringBuilder sb = new StringBuilder();
+      for (byte b : md.digest()) {
+         sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return sb.toString();
+   }
+
+   /**
+    * 
+    * Loads the file if it exists and was built for the same key and Infinispan version, errors are
+    * logged and result in an empty cache.
+    */
+   public void load() {
+      if (!file.exists()) {
+         return;
+      }
+      try {
+         DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+         try {
+            if (in.readInt() != MAGIC || in.readShort() != FORMAT_VERSION || !key.equals(in.readUTF()) || !version.equals(in.readUTF())) {
+               dirty = true;
+               return;
+            }
+            int classCount = in.readInt();
+            for (int i = 0; i < classCount; i++) {
+               String className = in.readUTF();
+               byte kind = in.readByte();
+               byte leaf = in.readByte();
+               short getterCount = in.readShort();
+               String[] getters = null;
+               if (getterCount >= 0) {
+                  getters = new String[getterCount];
+                  for (int j = 0; j < getters.length; j++) {
+                     getters[j] = in.readUTF();
+                  }
+               }
+               entries.put(className, new Entry(kind, leaf, getters));
+            }
+         } finally {
+            in.close();
+         }
+      } catch (Exception e) {
+         log.debug("Error while loading reflection plan cache " + file + ", it will be rebuilt", e);
+         entries.clear();
+         dirty = true;
+      }
+   }
+
+   /**
+    * 
+    * @param className
+    * @return plan of the class or null if the class isn't cached
+    */
+   public Entry get(String className) {
+      return entries.get(className);
+   }
+
+   public void put(String className, Entry entry) {
+      entries.put(className, entry);
+      dirty = true;
+   }
+
+   /**
+    * 
+    * Drops the class from cache, called when its getters don't match the loaded class.
+    * 
+    * @param className
+    */
+   public void invalidate(String className) {
+      entries.remove(className);
+      dirty = true;
+   }
+
+   /**
+    * 
+    * Writes the file if anything changed, via a temporary file renamed over the old one.
+    */
+   public void save() {
+      if (!dirty) {
+         return;
+      }
+      File tmp = new File(file.getPath() + ".tmp");
+      try {
+         file.getParentFile().mkdirs();
+         List<Map.Entry<String, Entry>> list = new ArrayList<Map.Entry<String, Entry>>(entries.entrySet());
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+         try {
+            out.writeInt(MAGIC);
+            out.writeShort(FORMAT_VERSION);
+            out.writeUTF(key);
+            out.writeUTF(version);
+            out.writeInt(list.size());
+            for (Map.Entry<String, Entry> ent : list) {
+               Entry entry = ent.getValue();
+               out.writeUTF(ent.getKey());
+               out.writeByte(entry.kind);
+               out.writeByte(entry.leaf);
+               if (entry.getters == null) {
+                  out.writeShort(-1);
+               } else {
+                  out.writeShort(entry.getters.length);
+                  for (String getter : entry.getters) {
+                     out.writeUTF(getter);
+                  }
+               }
+            }
+         } finally {
+            out.close();
+         }
+         if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+               log.debug("Can't rename " + tmp + " to " + file);
+            }
+         }
+         dirty = false;
+      } catch (Exception e) {
+         log.debug("Error while saving reflection plan cache " + file, e);
+         tmp.delete();
+      }
+   }
+}
@@ -0,0 +1,227 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.util.logging.Log;
+import org.infinispan.util.logging.LogFactory;
+
+/**
+ * 
+ * Writes normalized configuration of starting caches into &lt;dir&gt;/&lt;manager&gt;.properties in
+ * background. Caches are queued without any normalization on the caller thread, the writer thread
+ * takes everything queued so far as one batch and appends it with one fsync per file. A cache
+ * queued again before being written replaces the pending entry but keeps its queue position and
+ * enqueue time, so the lag is measured from the first unwritten request. New caches are dropped
+ * when the queue is full.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class SnapshotWriter {
+   private static final Log log = LogFactory.getLog(SnapshotWriter.class);
+
+   public static final int DEFAULT_QUEUE_SIZE = 10000;
+
+   private static class Pending {
+      private final String managerName;
+      private final String cacheName;
+      private final Configuration configuration;
+      private final long enqueueTime;
+
+      public Pending(String managerName, String cacheName, Configuration configuration, long enqueueTime) {
+         this.managerName = managerName;
+         this.cacheName = cacheName;
+         this.configuration = configuration;
+         this.enqueueTime = enqueueTime;
+      }
+   }
+
+   private final File dir;
+   private final int queueSize;
+   private final LinkedHashMap<String, Pending> pending = new LinkedHashMap<String, Pending>();
+   private final AtomicLong dropped = new AtomicLong();
+   private final AtomicLong coalesced = new AtomicLong();
+   private final AtomicLong written = new AtomicLong();
+   private volatile long lastBatchLag;
+   private Thread thread;
+
+   public SnapshotWriter(File dir, int queueSize) {
+      this.dir = dir;
+      this.queueSize = queueSize;
+   }
+
+   /**
+    * 
+    * Queues configuration of a starting cache, never blocks.
+    * 
+    * @param managerName
+    * @param cacheName
+    * @param configuration
+    * @return false if the queue was full and the cache was dropped
+    */
+   public boolean enqueue(String managerName, String cacheName, Configuration configuration) {
+      String key = managerName + "/" + cacheName;
+      synchronized (pending) {
+         Pending previous = pending.get(key);
+         long enqueueTime;
+         if (previous != null) {
+            // replaced in place, keeps the queue position and the age of the first request
+            coalesced.incrementAndGet();
+            enqueueTime = previous.enqueueTime;
+         } else if (pending.size() >= queueSize) {
+            dropped.incrementAndGet();
+            return false;
+         } else {
+            enqueueTime = System.currentTimeMillis();
+         }
+         pending.put(key, new Pending(managerName, cacheName, configuration, enqueueTime));
+         if (thread == null) {
+            thread = new Thread(new Runnable() {
+               @Override
+               public void run() {
+                  writeLoop();
+               }
+            }, "ConfigNormalizer-snapshot-writer");
+            thread.setDaemon(true);
+            thread.start();
+         }
+         pending.notify();
+      }
+      return true;
+   }
+
+   private void writeLoop() {
+      while (true) {
+         List<Pending> batch;
+         synchronized (pending) {
+            while (pending.isEmpty()) {
+               try {
+                  pending.wait();
+               } catch (InterruptedException e) {
+                  return;
+               }
+            }
+            batch = new ArrayList<Pending>(pending.values());
+            pending.clear();
+         }
+         writeBatch(batch);
+      }
+   }
+
+   private void writeBatch(List<Pending> batch) {
+      Map<String, ByteArrayOutputStream> dataByManager = new LinkedHashMap<String, ByteArrayOutputStream>();
+      for (Pending p : batch) {
+         try {
+            ByteArrayOutputStream data = dataByManager.get(p.managerName);
+            if (data == null) {
+               data = new ByteArrayOutputStream();
+               dataByManager.put(p.managerName, data);
+            }
+            Properties props = new SortedProperties();
+            props.putAll(ConfigNormalizer.reflectProperties(p.configuration, "cache." + p.cacheName));
+            OutputStreamWriter w = new OutputStreamWriter(data, "UTF-8");
+            props.store(w, null);
+            w.flush();
+         } catch (Exception e) {
+            log.error("Error while normalizing configuration of cache " + p.cacheName + " for snapshot", e);
+         }
+      }
+      for (Map.Entry<String, ByteArrayOutputStream> ent : dataByManager.entrySet()) {
+         File file = new File(dir, ent.getKey().replaceAll("[^A-Za-z0-9._-]", "_") + ".properties");
+         try {
+            dir.mkdirs();
+            FileOutputStream out = new FileOutputStream(file, true);
+            try {
+               ent.getValue().writeTo(out);
+               out.getChannel().force(true);
+            } finally {
+               out.close();
+            }
+         } catch (Exception e) {
+            log.error("Error while writing config snapshot to file " + file, e);
+         }
+      }
+      long now = System.currentTimeMillis();
+      long lag = 0;
+      for (Pending p : batch) {
+         lag = Math.max(lag, now - p.enqueueTime);
+      }
+      lastBatchLag = lag;
+      written.addAndGet(batch.size());
+   }
+
+   /**
+    * 
+    * @return number of caches waiting to be written
+    */
+   public int getQueueDepth() {
+      synchronized (pending) {
+         return pending.size();
+      }
+   }
+
+   /**
+    * 
+    * @return age of the oldest waiting cache in milliseconds, or the lag of the last written batch
+    *         when nothing is waiting
+    */
+   public long getLagMillis() {
+      synchronized (pending) {
+         if (!pending.isEmpty()) {
+            return System.currentTimeMillis() - pending.values().iterator().next().enqueueTime;
+         }
+      }
+      return lastBatchLag;
+   }
+
+   /**
+    * 
+    * @return number of caches dropped because the queue was full
+    */
+   public long getDroppedCount() {
+      return dropped.get();
+   }
+
+   /**
+    * 
+    * @return number of queued caches that replaced a pending entry of the same cache
+    */
+   public long getCoalescedCount() {
+      return coalesced.get();
+   }
+
+   /**
+    * 
+    * @return number of caches written
+    */
+   public long getWrittenCount() {
+      return written.get();
+   }
+}
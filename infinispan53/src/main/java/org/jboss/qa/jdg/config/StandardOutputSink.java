@@ -0,0 +1,123 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Comparator;
+import java.util.Date;
+
+/**
+ * 
+ * Standard properties in the format of Properties.store to a Writer, as read by Properties.load.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class StandardOutputSink implements OutputSink {
+
+   private BufferedWriter out;
+
+   @Override
+   public String getFormat() {
+      return "standard";
+   }
+
+   @Override
+   public Comparator<String> getKeyOrder() {
+      return null;
+   }
+
+   @Override
+   public boolean isAppend() {
+      return false;
+   }
+
+   @Override
+   public void open(WritableByteChannel channel) throws IOException {
+      out = new BufferedWriter(Channels.newWriter(channel, "UTF-8"), 65536);
+      out.write("#" + new Date().toString());
+      out.newLine();
+   }
+
+   @Override
+   public void startSection(String section) {
+   }
+
+   @Override
+   public void entry(String key, int type, String value) throws IOException {
+      escape(key, true);
+      out.write('=');
+      escape(value, false);
+      out.newLine();
+   }
+
+   @Override
+   public void endSection(String section) {
+   }
+
+   @Override
+   public void close() throws IOException {
+      out.flush();
+   }
+
+   private void escape(String s, boolean key) throws IOException {
+      for (int i = 0; i < s.length(); i++) {
+         char c = s.charAt(i);
+         if (c > 61 && c < 127) {
+            if (c == '\\') {
+               out.write("\\\\");
+            } else {
+               out.write(c);
+            }
+            continue;
+         }
+         switch (c) {
+            case ' ':
+               if (i == 0 || key) {
+                  out.write('\\');
+               }
+               out.write(' ');
+               break;
+            case '\t':
+               out.write("\\t");
+               break;
+            case '\n':
+               out.write("\\n");
+               break;
+            case '\r':
+               out.write("\\r");
+               break;
+            case '\f':
+               out.write("\\f");
+               break;
+            case '=':
+            case ':':
+            case '#':
+            case '!':
+               out.write('\\');
+               out.write(c);
+               break;
+            default:
+               out.write(c);
+         }
+      }
+   }
+}
@@ -0,0 +1,119 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Comparator;
+
+/**
+ * 
+ * XML properties in the format of Properties.storeToXML, as read by Properties.loadFromXML.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class XmlOutputSink implements OutputSink {
+
+   private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+   private Writer out;
+
+   @Override
+   public String getFormat() {
+      return "xml";
+   }
+
+   @Override
+   public Comparator<String> getKeyOrder() {
+      return null;
+   }
+
+   @Override
+   public boolean isAppend() {
+      return false;
+   }
+
+   @Override
+   public void open(WritableByteChannel channel) throws IOException {
+      out = new BufferedWriter(Channels.newWriter(channel, "UTF-8"), 65536);
+      out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>");
+      out.write(LINE_SEPARATOR);
+      out.write("<!DOCTYPE properties SYSTEM \"http://java.sun.com/dtd/properties.dtd\">");
+      out.write(LINE_SEPARATOR);
+      out.write("<properties>");
+      out.write(LINE_SEPARATOR);
+   }
+
+   @Override
+   public void startSection(String section) {
+   }
+
+   @Override
+   public void entry(String key, int type, String value) throws IOException {
+      out.write("<entry key=\"");
+      escape(key, true);
+      if (value.length() == 0) {
+         out.write("\"/>");
+      } else {
+         out.write("\">");
+         escape(value, false);
+         out.write("</entry>");
+      }
+      out.write(LINE_SEPARATOR);
+   }
+
+   @Override
+   public void endSection(String section) {
+   }
+
+   @Override
+   public void close() throws IOException {
+      out.write("</properties>");
+      out.write(LINE_SEPARATOR);
+      out.flush();
+   }
+
+   private void escape(String s, boolean attribute) throws IOException {
+      int start = 0;
+      for (int i = 0; i < s.length(); i++) {
+         char c = s.charAt(i);
+         String escape = null;
+         if (c == '<') {
+            escape = "&lt;";
+         } else if (c == '>') {
+            escape = "&gt;";
+         } else if (c == '&') {
+            escape = "&amp;";
+         } else if (c == '"' && attribute) {
+            escape = "&quot;";
+         } else if (c < 0x20 && (attribute || (c != '\t' && c != '\n'))) {
+            escape = "&#" + (int) c + ";";
+         }
+         if (escape != null) {
+            out.write(s, start, i - start);
+            out.write(escape);
+            start = i + 1;
+         }
+      }
+      out.write(s, start, s.length() - start);
+   }
+}
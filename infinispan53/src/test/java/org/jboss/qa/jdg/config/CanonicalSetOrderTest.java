@@ -0,0 +1,118 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * 
+ * Unordered collections are output in the order of their normalized content, whatever order they
+ * are iterated in, also when they are truncated or take part in a cycle.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class CanonicalSetOrderTest {
+
+   @After
+   public void tearDown() {
+      System.clearProperty(ConfigNormalizer.PROP_MAX_COLLECTION_ELEMENTS);
+   }
+
+   private static Set<Object> set(List<?> elements) {
+      return new LinkedHashSet<Object>(elements);
+   }
+
+   @Test
+   public void testOrderDoesNotDependOnIteration() throws Exception {
+      List<String> elements = Arrays.asList("delta", "alpha", "charlie", "bravo");
+      ConfigSnapshot s = ConfigNormalizer.reflectObject(new HashSet<Object>(elements), "s");
+      List<String> reversed = new ArrayList<String>(elements);
+      Collections.reverse(reversed);
+      assertEquals(s.toProperties(), ConfigNormalizer.reflectObject(set(reversed), "s").toProperties());
+      assertEquals("alpha", s.get("s[0]"));
+      assertEquals("delta", s.get("s[3]"));
+   }
+
+   @Test
+   public void testElementsOrderedByFlattenedContent() throws Exception {
+      List<Object> elements = new ArrayList<Object>();
+      elements.add(Arrays.asList("b", "1"));
+      elements.add(Arrays.asList("a", "2"));
+      ConfigSnapshot s = ConfigNormalizer.reflectObject(set(elements), "s");
+      assertEquals("a", s.get("s[0][0]"));
+      assertEquals("2", s.get("s[0][1]"));
+      assertEquals("b", s.get("s[1][0]"));
+   }
+
+   @Test
+   public void testTruncationKeepsSameElements() throws Exception {
+      System.setProperty(ConfigNormalizer.PROP_MAX_COLLECTION_ELEMENTS, "3");
+      List<Integer> elements = new ArrayList<Integer>();
+      for (int i = 0; i < 10; i++) {
+         elements.add(i);
+      }
+      Collections.shuffle(elements);
+      ConfigSnapshot s = ConfigNormalizer.reflectObject(set(elements), "s");
+      Collections.reverse(elements);
+      assertEquals(s.toProperties(), ConfigNormalizer.reflectObject(set(elements), "s").toProperties());
+      assertEquals("0", s.get("s[0]"));
+      assertEquals("2", s.get("s[2]"));
+      assertEquals(ConfigNormalizer.TRUNCATED_MARKER, s.get("s[3]"));
+      assertNull(s.get("s[4]"));
+   }
+
+   @Test
+   public void testCycleThroughSet() throws Exception {
+      Set<Object> first = new LinkedHashSet<Object>();
+      List<Object> firstList = new ArrayList<Object>();
+      firstList.add(first);
+      first.add(firstList);
+      first.add("a");
+      Set<Object> second = new LinkedHashSet<Object>();
+      List<Object> secondList = new ArrayList<Object>();
+      secondList.add(second);
+      second.add("a");
+      second.add(secondList);
+      ConfigSnapshot s = ConfigNormalizer.reflectObject(first, "s");
+      assertEquals(s.toProperties(), ConfigNormalizer.reflectObject(second, "s").toProperties());
+      assertEquals("a", s.get("s[0]"));
+      assertEquals(ConfigNormalizer.CYCLE_MARKER, s.get("s[1][0]"));
+   }
+
+   @Test
+   public void testSetReachedTwice() throws Exception {
+      Set<Object> shared = set(Arrays.asList("y", "x"));
+      ConfigSnapshot s = ConfigNormalizer.reflectObject(Arrays.asList(shared, shared), "r");
+      assertEquals("x", s.get("r[0][0]"));
+      assertEquals("x", s.get("r[1][0]"));
+      assertEquals("y", s.get("r[1][1]"));
+   }
+}
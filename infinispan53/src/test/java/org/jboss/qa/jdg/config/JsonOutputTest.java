@@ -0,0 +1,117 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * 
+ * Escaping, typed values and nesting of the JSON output.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class JsonOutputTest {
+
+   /**
+    * 
+    * Writes string entries given as key, value, ... the way ConfigNormalizer does, in
+    * KEY_PATH_ORDER when nested.
+    */
+   private static String json(boolean nested, boolean pretty, String... entries) throws Exception {
+      List<String> keys = new ArrayList<String>();
+      for (int i = 0; i < entries.length; i += 2) {
+         keys.add(entries[i]);
+      }
+      if (nested) {
+         Collections.sort(keys, JsonSnapshotWriter.KEY_PATH_ORDER);
+      }
+      List<String> list = Arrays.asList(entries);
+      StringWriter out = new StringWriter();
+      JsonSnapshotWriter w = new JsonSnapshotWriter(out, nested, pretty);
+      for (String key : keys) {
+         w.write(key, entries[list.indexOf(key) + 1]);
+      }
+      w.end();
+      return out.toString();
+   }
+
+   @Test
+   public void testEscaping() throws Exception {
+      assertEquals("{\"k\\\"ey\":\"a\\\"b\\\\c\\nd\\te\\r\\u0001f\"}", json(false, false, "k\"ey", "a\"b\\c\nd\te\r\u0001f"));
+   }
+
+   @Test
+   public void testEmpty() throws Exception {
+      assertEquals("{}", json(false, true));
+      assertEquals("{}", json(true, false));
+   }
+
+   @Test
+   public void testTypedValuesWrittenBare() throws Exception {
+      StringWriter out = new StringWriter();
+      JsonSnapshotWriter w = new JsonSnapshotWriter(out, false, false);
+      w.write("b", ConfigSnapshot.TYPE_BOOLEAN, "true");
+      w.write("e", ConfigSnapshot.TYPE_ENUM, "SYNC");
+      w.write("i", ConfigSnapshot.TYPE_INT, "5");
+      w.write("l", ConfigSnapshot.TYPE_LONG, "9999999999");
+      w.write("s", ConfigSnapshot.TYPE_STRING, "5");
+      w.end();
+      assertEquals("{\"b\":true,\"e\":\"SYNC\",\"i\":5,\"l\":9999999999,\"s\":\"5\"}", out.toString());
+   }
+
+   @Test
+   public void testFlatKeepsDots() throws Exception {
+      assertEquals("{\"a.b\":\"1\",\"a.c\":\"2\"}", json(false, false, "a.b", "1", "a.c", "2"));
+   }
+
+   @Test
+   public void testNested() throws Exception {
+      assertEquals("{\"a\":{\"b\":{\"c\":\"1\",\"d\":\"2\"},\"e\":\"3\"},\"f\":\"4\"}",
+            json(true, false, "f", "4", "a.b.d", "2", "a.e", "3", "a.b.c", "1"));
+   }
+
+   @Test
+   public void testKeyThatIsAlsoPrefix() throws Exception {
+      assertEquals("{\"a\":{\"\":\"1\",\"b\":\"2\"}}", json(true, false, "a", "1", "a.b", "2"));
+   }
+
+   @Test
+   public void testKeyPathOrder() throws Exception {
+      List<String> keys = new ArrayList<String>(Arrays.asList("a.b-x", "a.b.c", "a.b"));
+      Collections.sort(keys, JsonSnapshotWriter.KEY_PATH_ORDER);
+      assertEquals(Arrays.asList("a.b", "a.b.c", "a.b-x"), keys);
+      // in natural order a.b-x would come between a.b and its member a.b.c
+      assertEquals("{\"a\":{\"b\":{\"\":\"1\",\"c\":\"2\"},\"b-x\":\"3\"}}",
+            json(true, false, "a.b", "1", "a.b.c", "2", "a.b-x", "3"));
+   }
+
+   @Test
+   public void testPretty() throws Exception {
+      assertEquals("{\n  \"a\": {\n    \"\": \"1\",\n    \"b\": \"2\"\n  },\n  \"c\": \"3\"\n}",
+            json(true, true, "a", "1", "a.b", "2", "c", "3"));
+   }
+}
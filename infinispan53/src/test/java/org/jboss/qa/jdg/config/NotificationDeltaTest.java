@@ -0,0 +1,95 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * 
+ * Deltas put into the user data of change notifications, from heap and off heap snapshots.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class NotificationDeltaTest {
+
+   private static Properties delta(Properties previous, Properties current) {
+      Properties userData = new Properties();
+      ConfigNormalizerService.putDelta(userData, previous, current);
+      Properties offHeapUserData = new Properties();
+      ConfigNormalizerService.putDelta(offHeapUserData, OffHeapSnapshot.create(previous), OffHeapSnapshot.create(current));
+      assertEquals("off heap delta differs", userData, offHeapUserData);
+      return userData;
+   }
+
+   private static Properties changed(int count) {
+      Properties p = new Properties();
+      for (int i = 0; i < count; i++) {
+         p.put(String.format("key%04d", i), "value" + i);
+      }
+      return p;
+   }
+
+   @Test
+   public void testChangedAddedRemoved() {
+      Properties previous = new Properties();
+      previous.put("a", "1");
+      previous.put("b", "2");
+      previous.put("c", "3");
+      Properties current = new Properties();
+      current.put("a", "1");
+      current.put("b", "20");
+      current.put("d", "4");
+      Properties userData = delta(previous, current);
+      assertEquals(3, userData.size());
+      assertEquals("20", userData.getProperty("delta.b"));
+      assertEquals(ConfigNormalizerService.DELTA_REMOVED, userData.getProperty("delta.c"));
+      assertEquals("4", userData.getProperty("delta.d"));
+      assertNull(userData.getProperty("delta.a"));
+   }
+
+   @Test
+   public void testNoChange() {
+      assertEquals(0, delta(changed(10), changed(10)).size());
+   }
+
+   @Test
+   public void testDeltaAtLimitNotTruncated() {
+      Properties userData = delta(new Properties(), changed(ConfigNormalizerService.MAX_DELTA_ENTRIES));
+      assertEquals(ConfigNormalizerService.MAX_DELTA_ENTRIES, userData.size());
+      assertFalse(userData.containsKey("deltaTruncated"));
+   }
+
+   @Test
+   public void testDeltaCapped() {
+      int count = ConfigNormalizerService.MAX_DELTA_ENTRIES * 2 + 1;
+      Properties userData = delta(changed(count), new Properties());
+      assertEquals("true", userData.getProperty("deltaTruncated"));
+      assertEquals(ConfigNormalizerService.MAX_DELTA_ENTRIES + 1, userData.size());
+      // the first keys in key order are kept
+      assertEquals(ConfigNormalizerService.DELTA_REMOVED, userData.getProperty("delta.key0000"));
+      assertEquals(ConfigNormalizerService.DELTA_REMOVED, userData.getProperty(String.format("delta.key%04d", ConfigNormalizerService.MAX_DELTA_ENTRIES - 1)));
+      assertNull(userData.getProperty(String.format("delta.key%04d", ConfigNormalizerService.MAX_DELTA_ENTRIES)));
+   }
+}
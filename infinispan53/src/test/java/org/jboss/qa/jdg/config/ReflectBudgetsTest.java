@@ -0,0 +1,141 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * 
+ * Cycle markers and the depth, collection element and property budgets of reflect().
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class ReflectBudgetsTest {
+
+   @Before
+   public void setUp() {
+      System.setProperty(ConfigNormalizer.PROP_MAX_DEPTH, "3");
+      System.setProperty(ConfigNormalizer.PROP_MAX_COLLECTION_ELEMENTS, "3");
+      System.setProperty(ConfigNormalizer.PROP_MAX_PROPERTIES, "20");
+   }
+
+   @After
+   public void tearDown() {
+      System.clearProperty(ConfigNormalizer.PROP_MAX_DEPTH);
+      System.clearProperty(ConfigNormalizer.PROP_MAX_COLLECTION_ELEMENTS);
+      System.clearProperty(ConfigNormalizer.PROP_MAX_PROPERTIES);
+   }
+
+   private static List<Object> list(Object... elements) {
+      return new ArrayList<Object>(Arrays.asList(elements));
+   }
+
+   @Test
+   public void testDepthLimit() throws Exception {
+      ConfigSnapshot s = ConfigNormalizer.reflectObject(list("a", list(list(list("x")))), "r");
+      assertEquals("a", s.get("r[0]"));
+      assertEquals(ConfigNormalizer.DEPTH_LIMIT_MARKER, s.get("r[1][0][0]"));
+      assertNull(s.get("r[1][0][0][0]"));
+   }
+
+   @Test
+   public void testDepthLimitOfSharedObjectDependsOnWhereItsReached() throws Exception {
+      List<Object> shared = list(list("x"));
+      // flattened whole at depth 1 first, then reached at depth 2 where its element is too deep
+      ConfigSnapshot s = ConfigNormalizer.reflectObject(list(shared, list(shared)), "r");
+      assertEquals("x", s.get("r[0][0][0]"));
+      assertEquals(ConfigNormalizer.DEPTH_LIMIT_MARKER, s.get("r[1][0][0]"));
+   }
+
+   @Test
+   public void testCollectionElements() throws Exception {
+      ConfigSnapshot s = ConfigNormalizer.reflectObject(list("a", "b", "c", "d", "e"), "r");
+      assertEquals("c", s.get("r[2]"));
+      assertEquals(ConfigNormalizer.TRUNCATED_MARKER, s.get("r[3]"));
+      assertNull(s.get("r[4]"));
+      assertEquals(4, s.size());
+   }
+
+   @Test
+   public void testArrayElements() throws Exception {
+      ConfigSnapshot s = ConfigNormalizer.reflectObject(new int[] { 1, 2, 3, 4 }, "r");
+      assertEquals("3", s.get("r[2]"));
+      assertEquals(ConfigNormalizer.TRUNCATED_MARKER, s.get("r[3]"));
+      assertEquals(4, s.size());
+   }
+
+   @Test
+   public void testMapKeepsSmallestKeys() throws Exception {
+      Map<String, String> map = new HashMap<String, String>();
+      for (String key : new String[] { "e", "b", "d", "a", "c" }) {
+         map.put(key, key.toUpperCase());
+      }
+      ConfigSnapshot s = ConfigNormalizer.reflectObject(map, "r");
+      assertEquals("A", s.get("r.a"));
+      assertEquals("C", s.get("r.c"));
+      assertNull(s.get("r.d"));
+      assertEquals(ConfigNormalizer.TRUNCATED_MARKER, s.get("r"));
+   }
+
+   @Test
+   public void testPropertiesLimit() throws Exception {
+      System.setProperty(ConfigNormalizer.PROP_MAX_COLLECTION_ELEMENTS, "100");
+      System.setProperty(ConfigNormalizer.PROP_MAX_PROPERTIES, "4");
+      List<Object> list = list();
+      for (int i = 0; i < 10; i++) {
+         list.add(i);
+      }
+      ConfigSnapshot s = ConfigNormalizer.reflectObject(list, "r");
+      assertEquals(5, s.size());
+      assertEquals("3", s.get("r[3]"));
+      assertEquals(ConfigNormalizer.PROPERTIES_LIMIT_MARKER, s.get("r[4]"));
+   }
+
+   @Test
+   public void testCycles() throws Exception {
+      List<Object> list = list("a");
+      list.add(list);
+      Map<String, Object> map = new HashMap<String, Object>();
+      map.put("self", map);
+      map.put("list", list);
+      ConfigSnapshot s = ConfigNormalizer.reflectObject(map, "r");
+      assertEquals(ConfigNormalizer.CYCLE_MARKER, s.get("r.self"));
+      assertEquals("a", s.get("r.list[0]"));
+      assertEquals(ConfigNormalizer.CYCLE_MARKER, s.get("r.list[1]"));
+   }
+
+   @Test
+   public void testSharedObjectIsNotCycle() throws Exception {
+      List<Object> shared = list("x");
+      ConfigSnapshot s = ConfigNormalizer.reflectObject(list(shared, shared), "r");
+      assertEquals("x", s.get("r[0][0]"));
+      assertEquals("x", s.get("r[1][0]"));
+   }
+}
@@ -0,0 +1,110 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.infinispan.configuration.fixture.BlockingConfiguration;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * 
+ * Partial results of reflect() bounded by the deadline and by the getter timeout.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class ReflectDeadlineTest {
+
+   /**
+    * Value whose toString() takes a while.
+    */
+   public static class SlowValue {
+      private final int id;
+
+      public SlowValue(int id) {
+         this.id = id;
+      }
+
+      @Override
+      public String toString() {
+         try {
+            Thread.sleep(50);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         return "slow" + id;
+      }
+   }
+
+   @After
+   public void tearDown() {
+      System.clearProperty(ConfigNormalizer.PROP_TIMEOUT);
+      System.clearProperty(ConfigNormalizer.PROP_GETTER_TIMEOUT);
+   }
+
+   @Test
+   public void testDeadlineGivesPartialResult() throws Exception {
+      System.setProperty(ConfigNormalizer.PROP_TIMEOUT, "200");
+      List<SlowValue> values = new ArrayList<SlowValue>();
+      for (int i = 0; i < 20; i++) {
+         values.add(new SlowValue(i));
+      }
+      ConfigSnapshot s = ConfigNormalizer.reflectObject(values, "r");
+      // every element has its key, what wasn't reached in time is marked
+      assertEquals(20, s.size());
+      assertEquals("slow0", s.get("r[0]"));
+      assertEquals(ConfigNormalizer.TIMEOUT_MARKER, s.get("r[19]"));
+   }
+
+   @Test
+   public void testBlockedGetterIsNotCalledAgain() throws Exception {
+      System.setProperty(ConfigNormalizer.PROP_GETTER_TIMEOUT, "100");
+      CountDownLatch release = new CountDownLatch(1);
+      AtomicInteger calls = new AtomicInteger();
+      BlockingConfiguration bean = new BlockingConfiguration(release, calls);
+      try {
+         ConfigSnapshot s = ConfigNormalizer.reflectObject(bean, "b");
+         assertEquals("blocking", s.get("b.name"));
+         assertEquals(ConfigNormalizer.TIMEOUT_MARKER, s.get("b.blocked"));
+         assertEquals(1, calls.get());
+
+         s = ConfigNormalizer.reflectObject(bean, "b");
+         assertEquals("blocking", s.get("b.name"));
+         assertEquals(ConfigNormalizer.TIMEOUT_MARKER, s.get("b.blocked"));
+         assertEquals("getter still blocked was called again", 1, calls.get());
+      } finally {
+         release.countDown();
+      }
+      // called again once the abandoned call returns
+      long deadline = System.currentTimeMillis() + 10000;
+      String value;
+      do {
+         Thread.sleep(10);
+         value = ConfigNormalizer.reflectObject(bean, "b").get("b.blocked");
+      } while (!"released".equals(value) && System.currentTimeMillis() < deadline);
+      assertEquals("released", value);
+      assertEquals(2, calls.get());
+   }
+}
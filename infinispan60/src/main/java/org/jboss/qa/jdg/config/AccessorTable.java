@@ -0,0 +1,91 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+/**
+ * 
+ * Getters of Infinispan configuration classes callable without reflection. Implemented by
+ * GeneratedAccessors, which is generated at build time by AccessorGenerator from the
+ * accessor-generator module for the Infinispan version the module is compiled against. Values of
+ * primitive getters are read through getPrimitive and stay unboxed up to the ConfigSnapshot.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+interface AccessorTable {
+
+   /**
+    * Value type of a getter called through get().
+    */
+   byte REFERENCE = -1;
+
+   /**
+    * 
+    * @return org.infinispan.Version.printVersion() of the Infinispan the table was generated for
+    */
+   String getInfinispanVersion();
+
+   /**
+    * 
+    * @param cls
+    * @return index of the class in the table or -1 if the class wasn't generated or it's not the
+    *         same class the table was compiled against
+    */
+   int indexOf(Class<?> cls);
+
+   /**
+    * 
+    * @param classIndex
+    * @return names of the getters of the class, getterIndex of get() is index to this array
+    */
+   String[] getGetterNames(int classIndex);
+
+   /**
+    * 
+    * @param classIndex
+    * @param getterIndex
+    * @return ConfigSnapshot.TYPE_INT, TYPE_LONG or TYPE_BOOLEAN for a getter called through
+    *         getPrimitive, REFERENCE for a getter called through get()
+    */
+   byte getValueType(int classIndex, int getterIndex);
+
+   /**
+    * 
+    * Calls a getter of value type REFERENCE. Getters of char, float and double return their
+    * String, the same ConfigSnapshot stores for them.
+    * 
+    * @param classIndex
+    * @param getterIndex
+    * @param obj
+    * @return value returned by the getter, null for void methods
+    * @throws Exception
+    */
+   Object get(int classIndex, int getterIndex, Object obj) throws Exception;
+
+   /**
+    * 
+    * Calls a getter of an int, long, boolean, short or byte without boxing the value.
+    * 
+    * @param classIndex
+    * @param getterIndex
+    * @param obj
+    * @return the value, 1 or 0 for a boolean
+    * @throws Exception
+    */
+   long getPrimitive(int classIndex, int getterIndex, Object obj) throws Exception;
+}
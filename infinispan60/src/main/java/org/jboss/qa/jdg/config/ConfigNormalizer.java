@@ -20,29 +20,51 @@ package org.jboss.qa.jdg.config;
 
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
+import java.lang.reflect.Array;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.management.MBeanAttributeInfo;
 
+import org.infinispan.Version;
 import org.infinispan.commons.api.BasicCacheContainer;
 import org.infinispan.commons.util.FileLookupFactory;
 import org.infinispan.commons.util.TypedProperties;
 import org.infinispan.configuration.cache.Configuration;
 import org.infinispan.configuration.cache.ConfigurationBuilder;
 import org.infinispan.configuration.global.GlobalConfiguration;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
 import org.infinispan.configuration.parsing.ConfigurationBuilderHolder;
 import org.infinispan.configuration.parsing.ParserRegistry;
 import org.infinispan.remoting.transport.jgroups.JGroupsTransport;
@@ -62,7 +84,84 @@ public class ConfigNormalizer {
 
    private static Logger log = Logger.getLogger(ConfigNormalizer.class);
 
+   public static final String PROP_MAX_DEPTH = "org.jboss.qa.jdg.config.maxDepth";
+   public static final String PROP_MAX_COLLECTION_ELEMENTS = "org.jboss.qa.jdg.config.maxCollectionElements";
+   public static final String PROP_MAX_PROPERTIES = "org.jboss.qa.jdg.config.maxProperties";
+   public static final int DEFAULT_MAX_DEPTH = 32;
+   public static final int DEFAULT_MAX_COLLECTION_ELEMENTS = 1000;
+   public static final int DEFAULT_MAX_PROPERTIES = 100000;
+   public static final String PROP_TIMEOUT = "org.jboss.qa.jdg.config.timeout";
+   public static final String PROP_GETTER_TIMEOUT = "org.jboss.qa.jdg.config.getterTimeout";
+   public static final String PROP_GETTER_THREADS = "org.jboss.qa.jdg.config.getterThreads";
+   public static final int DEFAULT_GETTER_THREADS = 4;
+   public static final String PROP_REFLECTION_ONLY = "org.jboss.qa.jdg.config.reflectionOnly";
+   public static final String PROP_PLAN_CACHE_DIR = "org.jboss.qa.jdg.config.planCacheDir";
+
+   /**
+    * Value of an object that is its own ancestor.
+    */
+   public static final String CYCLE_MARKER = "<cycle>";
+   /**
+    * Value of an object nested deeper than max depth.
+    */
+   public static final String DEPTH_LIMIT_MARKER = "<depth limit>";
+   /**
+    * Value of the element following the last output element of a collection or an array longer
+    * than max collection elements, for maps it's the value of the map key itself.
+    */
+   public static final String TRUNCATED_MARKER = "<truncated>";
+   /**
+    * Value of the first property over max properties of a configuration, the rest is skipped.
+    */
+   public static final String PROPERTIES_LIMIT_MARKER = "<properties limit>";
+   /**
+    * Value of a getter or JGroups attribute that didn't return within the getter timeout and of
+    * everything not visited before the deadline.
+    */
+   public static final String TIMEOUT_MARKER = "<timeout>";
+   /**
+    * Value of a key present in the defaults but missing from the actual configuration (a shorter
+    * list, a removed property) in non-default output.
+    */
+   public static final String ABSENT_MARKER = "<absent>";
+
+   private static final Object TIMED_OUT = new Object();
+
+   private static ExecutorService getterExecutor;
+
+   // getters abandoned after a timeout whose call is still running, not called again until it returns
+   private static final Set<String> blockedGetters = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+   private static volatile NormalizerRules rules;
+
+   private static final String GENERATED_ACCESSORS = "org.jboss.qa.jdg.config.GeneratedAccessors";
+
+   private static AccessorTable generatedAccessors;
+
+   private static boolean generatedAccessorsLoaded;
+
+   private static volatile ReflectionPlanCache planCache;
+
+   private static Map<Class<?>, ClassPlan> planByClass = new ConcurrentHashMap<Class<?>, ClassPlan>();
+
+   private static final int KIND_CONFIG_BEAN = 0;
+   private static final int KIND_COLLECTION = 1;
+   private static final int KIND_ARRAY = 2;
+   private static final int KIND_ENUM = 3;
+   private static final int KIND_VALUE = 4;
+   private static final int KIND_MAP = 5;
+   private static final int KIND_SET = 6;
+
+   private static final int LEAF_PLAIN = 0;
+   private static final int LEAF_VALUE = 1;
+   private static final int LEAF_PROBE = 2;
+
    private static Method plainToString = null;
+
+   private static final int TEMPLATE_ID_LENGTH = 12;
+
+   private static Map<Class<?>, Properties> defaultsByClass = new ConcurrentHashMap<Class<?>, Properties>();
+
    static {
       try {
          plainToString = Object.class.getMethod("toString");
@@ -86,15 +185,176 @@ public class ConfigNormalizer {
     */
    public static Properties reflectProperties(GlobalConfiguration globalConfiguration, Map<String, Configuration> cacheConfigurations, JChannel jgroupsChannel)
          throws Exception {
-      Properties p = new Properties();
-      p.putAll(reflectProperties(globalConfiguration, "global"));
+      return reflectSnapshot(globalConfiguration, cacheConfigurations, jgroupsChannel, new Run()).toProperties();
+   }
+
+   /**
+    * 
+    * Returns properties made by reflection, bounded in time. Getters and JGroups attributes are
+    * invoked on a bounded thread pool, a getter that doesn't return within the getter timeout is
+    * output as &lt;timeout&gt; and left running, until it returns later runs output &lt;timeout&gt;
+    * for it without calling it again. After the deadline no getter is invoked and everything not
+    * visited yet is output as &lt;timeout&gt;, so the call returns partial results instead of
+    * blocking.
+    * 
+    * @param globalConfiguration
+    *           global configuration
+    * @param cacheConfigurations
+    *           map cacheName -> cacheConfig
+    * @param jgroupsChannel
+    *           JGroups channel
+    * @param timeoutMillis
+    *           overall deadline relative to now, 0 for none
+    * @param getterTimeoutMillis
+    *           timeout of a single getter, 0 for none
+    * @return configuration in form of properties
+    * @throws Exception
+    */
+   public static Properties reflectProperties(GlobalConfiguration globalConfiguration, Map<String, Configuration> cacheConfigurations,
+         JChannel jgroupsChannel, long timeoutMillis, long getterTimeoutMillis) throws Exception {
+      return reflectSnapshot(globalConfiguration, cacheConfigurations, jgroupsChannel, new Run(timeoutMillis, getterTimeoutMillis)).toProperties();
+   }
+
+   /**
+    * 
+    * Returns configuration made by reflection as typed snapshot, reflectProperties returns the
+    * same entries rendered as properties.
+    * 
+    * @param globalConfiguration
+    *           global configuration
+    * @param cacheConfigurations
+    *           map cacheName -> cacheConfig
+    * @param jgroupsChannel
+    *           JGroups channel
+    * @return configuration snapshot
+    * @throws Exception
+    */
+   public static ConfigSnapshot reflectSnapshot(GlobalConfiguration globalConfiguration, Map<String, Configuration> cacheConfigurations,
+         JChannel jgroupsChannel) throws Exception {
+      return reflectSnapshot(globalConfiguration, cacheConfigurations, jgroupsChannel, new Run());
+   }
+
+   /**
+    * 
+    * Returns configuration made by reflection as typed snapshot and adds subtree memo counters of
+    * the run to stats.
+    * 
+    * @param globalConfiguration
+    *           global configuration
+    * @param cacheConfigurations
+    *           map cacheName -> cacheConfig
+    * @param jgroupsChannel
+    *           JGroups channel
+    * @param stats
+    *           counters to add to
+    * @return configuration snapshot
+    * @throws Exception
+    */
+   public static ConfigSnapshot reflectSnapshot(GlobalConfiguration globalConfiguration, Map<String, Configuration> cacheConfigurations,
+         JChannel jgroupsChannel, SubtreeStats stats) throws Exception {
+      Run run = new Run();
+      ConfigSnapshot snapshot = reflectSnapshot(globalConfiguration, cacheConfigurations, jgroupsChannel, run);
+      stats.add(run.subtreeLookups, run.subtreeHits);
+      return snapshot;
+   }
+
+   /**
+    * 
+    * Returns configuration made by reflection as typed snapshot, bounded in time like
+    * {@link #reflectProperties(GlobalConfiguration, Map, JChannel, long, long)}.
+    * 
+    * @param globalConfiguration
+    *           global configuration
+    * @param cacheConfigurations
+    *           map cacheName -> cacheConfig
+    * @param jgroupsChannel
+    *           JGroups channel
+    * @param timeoutMillis
+    *           overall deadline relative to now, 0 for none
+    * @param getterTimeoutMillis
+    *           timeout of a single getter, 0 for none
+    * @return configuration snapshot
+    * @throws Exception
+    */
+   public static ConfigSnapshot reflectSnapshot(GlobalConfiguration globalConfiguration, Map<String, Configuration> cacheConfigurations,
+         JChannel jgroupsChannel, long timeoutMillis, long getterTimeoutMillis) throws Exception {
+      return reflectSnapshot(globalConfiguration, cacheConfigurations, jgroupsChannel, new Run(timeoutMillis, getterTimeoutMillis));
+   }
+
+   /**
+    * 
+    * Returns configuration made by reflection as typed snapshot, bounded in time, and adds subtree
+    * memo counters of the run to stats.
+    * 
+    * @param globalConfiguration
+    *           global configuration
+    * @param cacheConfigurations
+    *           map cacheName -> cacheConfig
+    * @param jgroupsChannel
+    *           JGroups channel
+    * @param timeoutMillis
+    *           overall deadline relative to now, 0 for none
+    * @param getterTimeoutMillis
+    *           timeout of a single getter, 0 for none
+    * @param stats
+    *           counters to add to
+    * @return configuration snapshot
+    * @throws Exception
+    */
+   public static ConfigSnapshot reflectSnapshot(GlobalConfiguration globalConfiguration, Map<String, Configuration> cacheConfigurations,
+         JChannel jgroupsChannel, long timeoutMillis, long getterTimeoutMillis, SubtreeStats stats) throws Exception {
+      Run run = new Run(timeoutMillis, getterTimeoutMillis);
+      ConfigSnapshot snapshot = reflectSnapshot(globalConfiguration, cacheConfigurations, jgroupsChannel, run);
+      stats.add(run.subtreeLookups, run.subtreeHits);
+      return snapshot;
+   }
+
+   private static ConfigSnapshot reflectSnapshot(GlobalConfiguration globalConfiguration, Map<String, Configuration> cacheConfigurations,
+         JChannel jgroupsChannel, Run run) throws Exception {
+      reflect(globalConfiguration, "global", run);
       for (Entry<String, Configuration> ent : cacheConfigurations.entrySet()) {
-         p.putAll(reflectProperties(ent.getValue(), "cache." + ent.getKey()));
+         reflect(ent.getValue(), "cache." + ent.getKey(), run);
       }
       if (jgroupsChannel != null) {
-         p.putAll(reflectProperties(jgroupsChannel, "jgroups"));
+         getJGroupsConfig("jgroups", jgroupsChannel, run);
       }
-      return p;
+      run.entries.compact();
+      return run.entries;
+   }
+
+   /**
+    * 
+    * Returns configuration made by reflection in columnar layout, sections global, cache.&lt;name&gt;
+    * and jgroups, caches sharing one schema of keys.
+    * 
+    * @param globalConfiguration
+    *           global configuration
+    * @param cacheConfigurations
+    *           map cacheName -> cacheConfig
+    * @param jgroupsChannel
+    *           JGroups channel
+    * @return columnar snapshot
+    * @throws Exception
+    */
+   public static ColumnarSnapshot reflectColumnarSnapshot(GlobalConfiguration globalConfiguration, Map<String, Configuration> cacheConfigurations,
+         JChannel jgroupsChannel) throws Exception {
+      ColumnarSnapshot columnar = new ColumnarSnapshot();
+      Run run = new Run();
+      int from = run.entries.size();
+      reflect(globalConfiguration, "", run);
+      columnar.addSection("global", GlobalConfiguration.class.getName(), run.entries, from, run.entries.size());
+      for (Entry<String, Configuration> ent : cacheConfigurations.entrySet()) {
+         from = run.entries.size();
+         reflect(ent.getValue(), "", run);
+         columnar.addSection("cache." + ent.getKey(), Configuration.class.getName(), run.entries, from, run.entries.size());
+      }
+      if (jgroupsChannel != null) {
+         from = run.entries.size();
+         getJGroupsConfig("", jgroupsChannel, run);
+         columnar.addSection("jgroups", JChannel.class.getName(), run.entries, from, run.entries.size());
+      }
+      columnar.compact();
+      return columnar;
    }
 
    /**
@@ -107,9 +367,9 @@ public class ConfigNormalizer {
     * @throws Exception
     */
    public static Properties reflectProperties(GlobalConfiguration globalConfiguration, String prefix) throws Exception {
-      Properties p = new Properties();
-      reflect(globalConfiguration, p, prefix);
-      return p;
+      Run run = new Run();
+      reflect(globalConfiguration, prefix, run);
+      return run.entries.toProperties();
    }
 
    /**
@@ -122,9 +382,13 @@ public class ConfigNormalizer {
     * @throws Exception
     */
    public static Properties reflectProperties(Configuration config, String prefix) throws Exception {
-      Properties p = new Properties();
-      reflect(config, p, prefix);
-      return p;
+      return reflectProperties(config, prefix, new Run());
+   }
+
+   private static Properties reflectProperties(Configuration config, String prefix, Run run) throws Exception {
+      int from = run.entries.size();
+      reflect(config, prefix, run);
+      return run.entries.toProperties(from, run.entries.size());
    }
 
    /**
@@ -137,11 +401,205 @@ public class ConfigNormalizer {
     * @throws Exception
     */
    public static Properties reflectProperties(JChannel jgroupsChannel, String prefix) throws Exception {
+      Run run = new Run();
+      getJGroupsConfig(prefix, jgroupsChannel, run);
+      return run.entries.toProperties();
+   }
+
+   /**
+    * 
+    * Returns only properties that differ from a freshly built default configuration. Default keys
+    * missing from the actual configuration are output with {@link #ABSENT_MARKER}.
+    * 
+    * @param globalConfiguration
+    *           global configuration
+    * @param cacheConfigurations
+    *           map cacheName -> cacheConfig
+    * @param jgroupsChannel
+    *           JGroups channel
+    * @return non-default configuration in form of properties
+    * @throws Exception
+    */
+   public static Properties reflectNonDefaultProperties(GlobalConfiguration globalConfiguration, Map<String, Configuration> cacheConfigurations,
+         JChannel jgroupsChannel) throws Exception {
+      Properties p = new Properties();
+      p.putAll(reflectNonDefaultProperties(globalConfiguration, "global"));
+      Run run = new Run();
+      for (Entry<String, Configuration> ent : cacheConfigurations.entrySet()) {
+         putAllNonDefault(p, reflectProperties(ent.getValue(), "", run), getDefaults(Configuration.class), "cache." + ent.getKey());
+      }
+      if (jgroupsChannel != null) {
+         p.putAll(reflectNonDefaultProperties(jgroupsChannel, "jgroups"));
+      }
+      return p;
+   }
+
+   /**
+    * 
+    * Returns properties where caches with identical configuration are output only once under
+    * template.&lt;id&gt; prefix. Caches share a template only if their properties are equal, the id
+    * is a prefix of their fingerprint, longer if the prefixes of different templates collide. Names
+    * of the caches sharing the template are listed in template.&lt;id&gt;.caches, comma separated.
+    * 
+    * @param globalConfiguration
+    *           global configuration
+    * @param cacheConfigurations
+    *           map cacheName -> cacheConfig
+    * @param jgroupsChannel
+    *           JGroups channel
+    * @param nonDefault
+    *           output only properties that differ from defaults
+    * @return configuration in form of properties
+    * @throws Exception
+    */
+   public static Properties reflectDeduplicatedProperties(GlobalConfiguration globalConfiguration, Map<String, Configuration> cacheConfigurations,
+         JChannel jgroupsChannel, boolean nonDefault) throws Exception {
+      Properties p = new Properties();
+      p.putAll(nonDefault ? reflectNonDefaultProperties(globalConfiguration, "global") : reflectProperties(globalConfiguration, "global"));
+      // templates are told apart by the properties themselves, the id is only a label
+      Map<Properties, String> templateIds = new HashMap<Properties, String>();
+      Map<String, TreeSet<String>> cacheNamesByTemplate = new HashMap<String, TreeSet<String>>();
+      Run run = new Run();
+      for (Entry<String, Configuration> ent : cacheConfigurations.entrySet()) {
+         Properties cacheProps = reflectProperties(ent.getValue(), "", run);
+         if (nonDefault) {
+            Properties nonDefaultProps = new Properties();
+            putAllNonDefault(nonDefaultProps, cacheProps, getDefaults(Configuration.class), "");
+            cacheProps = nonDefaultProps;
+         }
+         String templateId = templateIds.get(cacheProps);
+         if (templateId == null) {
+            templateId = newTemplateId(fingerprint(cacheProps), cacheNamesByTemplate.keySet());
+            templateIds.put(cacheProps, templateId);
+            cacheNamesByTemplate.put(templateId, new TreeSet<String>());
+            putAllPrefixed(p, cacheProps, "template." + templateId);
+         }
+         cacheNamesByTemplate.get(templateId).add(ent.getKey());
+      }
+      for (Entry<String, TreeSet<String>> ent : cacheNamesByTemplate.entrySet()) {
+         StringBuilder sb = new StringBuilder();
+         for (String cacheName : ent.getValue()) {
+            if (sb.length() > 0) {
+               sb.append(',');
+            }
+            sb.append(cacheName);
+         }
+         p.put("template." + ent.getKey() + ".caches", sb.toString());
+      }
+      if (jgroupsChannel != null) {
+         p.putAll(nonDefault ? reflectNonDefaultProperties(jgroupsChannel, "jgroups") : reflectProperties(jgroupsChannel, "jgroups"));
+      }
+      return p;
+   }
+   /**
+    * 
+    * @return prefix of the fingerprint not used by any of the ids yet, TEMPLATE_ID_LENGTH long
+    *         unless prefixes of different templates collide
+    */
+   private static String newTemplateId(String fingerprint, Set<String> usedIds) {
+      int length = TEMPLATE_ID_LENGTH;
+      String id = fingerprint.substring(0, length);
+      while (usedIds.contains(id)) {
+         length++;
+         id = length <= fingerprint.length() ? fingerprint.substring(0, length) : fingerprint + "-" + (length - fingerprint.length());
+      }
+      return id;
+   }
+
+
+   /**
+    * 
+    * Reflect global configuration, only properties that differ from GlobalConfigurationBuilder
+    * defaults.
+    * 
+    * @param globalConfiguration
+    * @param prefix
+    * @return Config properties
+    * @throws Exception
+    */
+   public static Properties reflectNonDefaultProperties(GlobalConfiguration globalConfiguration, String prefix) throws Exception {
+      Properties p = new Properties();
+      putAllNonDefault(p, reflectProperties(globalConfiguration, ""), getDefaults(GlobalConfiguration.class), prefix);
+      return p;
+   }
+
+   /**
+    * 
+    * Reflect configuration, only properties that differ from ConfigurationBuilder defaults.
+    * 
+    * @param config
+    * @param prefix
+    * @return Config properties
+    * @throws Exception
+    */
+   public static Properties reflectNonDefaultProperties(Configuration config, String prefix) throws Exception {
+      Properties p = new Properties();
+      putAllNonDefault(p, reflectProperties(config, ""), getDefaults(Configuration.class), prefix);
+      return p;
+   }
+
+   /**
+    * 
+    * Reflect JGroups channel, only attributes that differ from a new instance of the protocol.
+    * 
+    * @param jgroupsChannel
+    * @param prefix
+    * @return Config properties
+    * @throws Exception
+    */
+   public static Properties reflectNonDefaultProperties(JChannel jgroupsChannel, String prefix) throws Exception {
       Properties p = new Properties();
-      getJGroupsConfig(prefix, p, jgroupsChannel);
+      Run run = new Run();
+      for (Protocol proto : jgroupsChannel.getProtocolStack().getProtocols()) {
+         int from = run.entries.size();
+         reflectJGroupsProtocol("", proto, run);
+         Properties protoProps = run.entries.toProperties(from, run.entries.size());
+         putAllNonDefault(p, protoProps, getDefaults(proto.getClass()), prefix);
+      }
       return p;
    }
 
+   /**
+    * 
+    * Normalized properties of a default instance of the class, computed once and cached.
+    */
+   private static Properties getDefaults(Class<?> cls) throws Exception {
+      Properties defaults = defaultsByClass.get(cls);
+      if (defaults == null) {
+         Run run = new Run(0, 0);
+         if (cls == Configuration.class) {
+            reflect(new ConfigurationBuilder().build(), "", run);
+         } else if (cls == GlobalConfiguration.class) {
+            reflect(new GlobalConfigurationBuilder().build(), "", run);
+         } else if (Protocol.class.isAssignableFrom(cls)) {
+            try {
+               reflectJGroupsProtocol("", (Protocol) cls.newInstance(), run);
+            } catch (Exception e) {
+               log.debug("Can't compute defaults of " + cls.getName() + ", all its attributes will be output", e);
+               run = new Run(0, 0);
+            }
+         }
+         defaults = run.entries.toProperties();
+         defaultsByClass.put(cls, defaults);
+      }
+      return defaults;
+   }
+
+   private static void putAllNonDefault(Properties target, Properties properties, Properties defaults, String prefix) {
+      String prefixDot = prefix == null || "".equals(prefix) ? "" : prefix + ".";
+      for (String key : properties.stringPropertyNames()) {
+         String value = properties.getProperty(key);
+         if (!value.equals(defaults.getProperty(key))) {
+            target.put("".equals(key) ? prefix : prefixDot + key, value);
+         }
+      }
+      for (String key : defaults.stringPropertyNames()) {
+         if (properties.getProperty(key) == null) {
+            target.put("".equals(key) ? prefix : prefixDot + key, ABSENT_MARKER);
+         }
+      }
+   }
+
    /**
     * 
     * Stores the properties in sorted order into a regular properties file.
@@ -151,9 +609,7 @@ public class ConfigNormalizer {
     * @throws Exception
     */
    public static void storeSortedPropertiesAsXML(Properties properties, String file) throws Exception {
-      Properties props = new SortedProperties();
-      props.putAll(properties);
-      props.storeToXML(new FileOutputStream(file), null, "UTF-8");
+      store("xml", ConfigSnapshot.of(properties), file);
    }
 
    /**
@@ -165,36 +621,152 @@ public class ConfigNormalizer {
     * @throws Exception
     */
    public static void storeSortedProperties(Properties properties, String file) throws Exception {
-      Properties props = new SortedProperties();
-      props.putAll(properties);
-      props.store(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), null);
+      store("standard", ConfigSnapshot.of(properties), file);
    }
 
-   private static void findJars(List<URL> jarPaths, File dir) throws MalformedURLException {
-      for (File f : dir.listFiles()) {
-         if (f.isFile()) {
-            if (f.getName().endsWith(".jar")) {
-               jarPaths.add(f.toURI().toURL());
-            }
-         } else if (f.isDirectory()) {
-            findJars(jarPaths, f);
-         }
-      }
+   /**
+    * 
+    * Stores the properties in sorted order into a binary snapshot file, see BinarySnapshotWriter.
+    * 
+    * @param properties
+    * @param file
+    * @throws Exception
+    */
+   public static void storeSortedPropertiesAsBinary(Properties properties, String file) throws Exception {
+      store("binary", ConfigSnapshot.of(properties), file);
    }
 
-   private static ClassLoader getConfigClassLoader(String jarDir) throws MalformedURLException {
-      if (jarDir != null) {
-         ClassLoader parent = Thread.currentThread().getContextClassLoader();
-         List<URL> urls = new ArrayList<URL>();
-         findJars(urls, new File(jarDir));
-         return new URLClassLoader(urls.toArray(new URL[urls.size()]), parent);
-      } else {
-         return Thread.currentThread().getContextClassLoader();
-      }
+   /**
+    * 
+    * Stores the properties in sorted order into a JSON file, see JsonSnapshotWriter.
+    * 
+    * @param properties
+    * @param file
+    * @param nested
+    *           split keys on dots into nested objects
+    * @throws Exception
+    */
+   public static void storeSortedPropertiesAsJSON(Properties properties, String file, boolean nested) throws Exception {
+      store(nested ? "json-nested" : "json", ConfigSnapshot.of(properties), file);
    }
 
-   private static class FakeJGroupsTransport extends JGroupsTransport {
-      @Override
+   /**
+    * 
+    * @return sink of the output format found by ServiceLoader, null if there is none
+    */
+   public static OutputSink getOutputSink(String format) {
+      for (OutputSink sink : ServiceLoader.load(OutputSink.class, ConfigNormalizer.class.getClassLoader())) {
+         if (sink.getFormat().equals(format)) {
+            return sink;
+         }
+      }
+      return null;
+   }
+
+   /**
+    * 
+    * Stores the snapshot into a file in given output format. Entries are handed over to the sink
+    * of the format in its key order, straight from the snapshot.
+    * 
+    * @param format
+    * @param snapshot
+    * @param file
+    * @throws Exception
+    */
+   public static void store(String format, ConfigSnapshot snapshot, String file) throws Exception {
+      OutputSink sink = getOutputSink(format);
+      if (sink == null) {
+         throw new IllegalArgumentException("Unknown output format: " + format);
+      }
+      int[] order = snapshot.sortedIndexes(sink.getKeyOrder());
+      FileOutputStream out = new FileOutputStream(file, sink.isAppend());
+      try {
+         sink.open(out.getChannel());
+         String section = null;
+         for (int i : order) {
+            String key = snapshot.getKey(i);
+            if (section == null || !key.startsWith(section) || (key.length() > section.length() && key.charAt(section.length()) != '.')) {
+               if (section != null) {
+                  sink.endSection(section);
+               }
+               int dot = key.indexOf('.');
+               section = dot == -1 ? key : key.substring(0, dot);
+               sink.startSection(section);
+            }
+            sink.entry(key, snapshot.getType(i), snapshot.getString(i));
+         }
+         if (section != null) {
+            sink.endSection(section);
+         }
+         sink.close();
+      } finally {
+         out.close();
+      }
+   }
+
+   /**
+    * 
+    * Computes a fingerprint of the properties that doesn't depend on their order.
+    * 
+    * @param properties
+    * @return hex encoded MD5 of the sorted key=value pairs
+    * @throws Exception
+    */
+   public static String fingerprint(Properties properties) throws Exception {
+      MessageDigest md = MessageDigest.getInstance("MD5");
+      for (String key : new TreeSet<String>(properties.stringPropertyNames())) {
+         md.update(key.getBytes("UTF-8"));
+         md.update((byte) '=');
+         md.update(properties.getProperty(key).getBytes("UTF-8"));
+         md.update((byte) '\n');
+      }
+      StringBuilder sb = new StringBuilder();
+      for (byte b : md.digest()) {
+         sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return sb.toString();
+   }
+
+   /**
+    * 
+    * Copies the properties into target, prepending prefix to all keys.
+    * 
+    * @param target
+    * @param properties
+    * @param prefix
+    */
+   public static void putAllPrefixed(Properties target, Properties properties, String prefix) {
+      String prefixDot = prefix == null || "".equals(prefix) ? "" : prefix + ".";
+      for (String key : properties.stringPropertyNames()) {
+         target.put("".equals(key) ? prefix : prefixDot + key, properties.getProperty(key));
+      }
+   }
+
+   private static void findJars(List<URL> jarPaths, File dir) throws MalformedURLException {
+      for (File f : dir.listFiles()) {
+         if (f.isFile()) {
+            if (f.getName().endsWith(".jar")) {
+               jarPaths.add(f.toURI().toURL());
+            }
+         } else if (f.isDirectory()) {
+            findJars(jarPaths, f);
+         }
+      }
+   }
+
+   private static ClassLoader getConfigClassLoader(String jarDir) throws MalformedURLException {
+      if (jarDir != null) {
+         ClassLoader parent = Thread.currentThread().getContextClassLoader();
+         List<URL> urls = new ArrayList<URL>();
+         findJars(urls, new File(jarDir));
+         return new URLClassLoader(urls.toArray(new URL[urls.size()]), parent);
+      } else {
+         return Thread.currentThread().getContextClassLoader();
+      }
+   }
+
+   private static class FakeJGroupsTransport extends JGroupsTransport {
+      @Override
       public void initChannel() {
          props = TypedProperties.toTypedProperties(configuration.transport().properties());
          super.initChannel();
@@ -203,12 +775,21 @@ public class ConfigNormalizer {
 
    private static void usage() {
       System.out.println("USAGE ConfigNormalizer [OPTIONS] <config_file>");
+      System.out.println("      ConfigNormalizer query [OPTIONS] <key_pattern> <snapshot_file> ...");
+      System.out.println("         looks up keys in stored snapshots, see SnapshotQuery");
+      System.out.println("      ConfigNormalizer convert [OPTIONS] <binary_snapshot_file>");
+      System.out.println("         converts a binary snapshot to another output format, see BinarySnapshotReader");
       System.out.println("OPTIONS:");
       System.out.println("  -o <output_file>");
       System.out.println("  -f <output_format>");
       System.out.println("     defined output formats:");
       System.out.println("        xml      - xml properties (default)");
       System.out.println("        standard - standard properties");
+      System.out.println("        binary   - binary snapshot, see BinarySnapshotWriter, converted back by convert");
+      System.out.println("        json        - JSON object with one member per property");
+      System.out.println("        json-nested - JSON objects nested along the dotted keys");
+      System.out.println("        ndjson      - JSON object on a single line appended to the output file, tagged with @run and @timestamp");
+      System.out.println("        or format of another OutputSink registered in META-INF/services");
       System.out.println("  -c <cache_name>");
       System.out.println("     implies  output_type=cache");
       System.out.println("  -t <output_type>");
@@ -222,6 +803,20 @@ public class ConfigNormalizer {
       System.out.println("     prefix will be appended before all property keys in the output file, default empty string");
       System.out.println("  -j <jar_dir>");
       System.out.println("     all JAR files under this directory will be added to classpath");
+      System.out.println("  -d");
+      System.out.println("     print only properties that differ from defaults of a freshly built configuration");
+      System.out.println("     default properties missing from the configuration are printed as " + ABSENT_MARKER);
+      System.out.println("  -u");
+      System.out.println("     print each distinct cache configuration only once under prefix template.<id>, output type all only");
+      System.out.println("     template.<id>.caches lists the caches sharing the configuration");
+      System.out.println("  -r <rules_file>");
+      System.out.println("     rules of getters to skip or stringify, default config-normalizer-rules.txt bundled with the module");
+      System.out.println("  -k <dir>");
+      System.out.println("     directory of the reflection plan cache that speeds up next runs, \"none\" to disable, default ~/.config-normalizer");
+      System.out.println("  -w <millis>");
+      System.out.println("     overall deadline, what isn't reflected by then is printed as <timeout>, default no deadline");
+      System.out.println("  -g <millis>");
+      System.out.println("     timeout of a single getter or JGroups attribute, default no timeout");
       System.exit(0);
    }
 
@@ -230,6 +825,14 @@ public class ConfigNormalizer {
          usage();
          return;
       }
+      if (args[0].equals("query")) {
+         SnapshotQuery.main(Arrays.copyOfRange(args, 1, args.length));
+         return;
+      }
+      if (args[0].equals("convert")) {
+         BinarySnapshotReader.main(Arrays.copyOfRange(args, 1, args.length));
+         return;
+      }
       String outputFile = null;
       String outputFormat = "xml";
       String cacheName = null;
@@ -237,6 +840,8 @@ public class ConfigNormalizer {
       String prefix = "";
       String jarDir = null;
       String configFile = null;
+      boolean nonDefault = false;
+      boolean deduplicate = false;
 
       for (int i = 0; i < args.length; i++) {
          if (args[i].equals("-o")) {
@@ -257,6 +862,22 @@ public class ConfigNormalizer {
          } else if (args[i].equals("-j")) {
             jarDir = args[i + 1];
             i++;
+         } else if (args[i].equals("-d")) {
+            nonDefault = true;
+         } else if (args[i].equals("-u")) {
+            deduplicate = true;
+         } else if (args[i].equals("-r")) {
+            System.setProperty(NormalizerRules.PROP_RULES, args[i + 1]);
+            i++;
+         } else if (args[i].equals("-k")) {
+            System.setProperty(PROP_PLAN_CACHE_DIR, args[i + 1]);
+            i++;
+         } else if (args[i].equals("-w")) {
+            System.setProperty(PROP_TIMEOUT, args[i + 1]);
+            i++;
+         } else if (args[i].equals("-g")) {
+            System.setProperty(PROP_GETTER_TIMEOUT, args[i + 1]);
+            i++;
          } else {
             configFile = args[i];
             if (i != args.length - 1) {
@@ -270,23 +891,37 @@ public class ConfigNormalizer {
          usage();
          return;
       }
-      if (!Arrays.asList("xml", "standard").contains(outputFormat)) {
-         System.out.println("ERROR: unknown output format: " + outputType);
+      if (deduplicate && !"all".equals(outputType)) {
+         System.out.println("ERROR: option -u can't be used with output type: " + outputType);
+         usage();
+         return;
+      }
+      if (getOutputSink(outputFormat) == null) {
+         System.out.println("ERROR: unknown output format: " + outputFormat);
          usage();
          return;
       }
       ClassLoader configClassLoader = getConfigClassLoader(jarDir);
+      String planCacheDir = System.getProperty(PROP_PLAN_CACHE_DIR, ReflectionPlanCache.getDefaultDir().getPath());
+      if (!"none".equals(planCacheDir)) {
+         ReflectionPlanCache cache = new ReflectionPlanCache(new File(planCacheDir), ReflectionPlanCache.computeKey(configClassLoader),
+               Version.printVersion());
+         cache.load();
+         planCache = cache;
+      }
       ConfigurationBuilderHolder holder = new ParserRegistry(configClassLoader).parse(FileLookupFactory.newInstance().lookupFileStrict(configFile,
             configClassLoader));
       if ("all".equals(outputType)) {
-         Map<String, Configuration> cacheConfigurations = new HashMap<String, Configuration>();
+         Map<String, Configuration> cacheConfigurations = buildCacheConfigurations(holder);
          GlobalConfiguration globalConfiguration = holder.getGlobalConfigurationBuilder().build();
-         cacheConfigurations.put(BasicCacheContainer.DEFAULT_CACHE_NAME, holder.getDefaultConfigurationBuilder().build());
-         for (String cacheName1 : holder.getNamedConfigurationBuilders().keySet()) {
-            cacheConfigurations.put(cacheName1, holder.getNamedConfigurationBuilders().get(cacheName1).build());
-         }
          JChannel jgroupsChannel = getInitializedJChannel(globalConfiguration);
-         store(outputFormat, outputFile, reflectProperties(globalConfiguration, cacheConfigurations, jgroupsChannel));
+         if (deduplicate) {
+            store(outputFormat, outputFile, reflectDeduplicatedProperties(globalConfiguration, cacheConfigurations, jgroupsChannel, nonDefault));
+         } else if (nonDefault) {
+            store(outputFormat, outputFile, reflectNonDefaultProperties(globalConfiguration, cacheConfigurations, jgroupsChannel));
+         } else {
+            store(outputFormat, reflectSnapshot(globalConfiguration, cacheConfigurations, jgroupsChannel), outputFile);
+         }
       } else if ("cache".equals(outputType)) {
          Configuration config = null;
          if (cacheName == null || BasicCacheContainer.DEFAULT_CACHE_NAME.equals(cacheName)) {
@@ -300,43 +935,104 @@ public class ConfigNormalizer {
             }
             config = b.build();
          }
-         store(outputFormat, outputFile, reflectProperties(config, prefix));
+         store(outputFormat, outputFile, nonDefault ? reflectNonDefaultProperties(config, prefix) : reflectProperties(config, prefix));
       } else if ("global".equals(outputType)) {
          GlobalConfiguration globalConfiguration = holder.getGlobalConfigurationBuilder().build();
-         store(outputFormat, outputFile, reflectProperties(globalConfiguration, prefix));
+         store(outputFormat, outputFile, nonDefault ? reflectNonDefaultProperties(globalConfiguration, prefix) : reflectProperties(globalConfiguration,
+               prefix));
       } else if ("jgroups".equals(outputType)) {
          GlobalConfiguration globalConfiguration = holder.getGlobalConfigurationBuilder().build();
          JChannel jgroupsChannel = getInitializedJChannel(globalConfiguration);
-         store(outputFormat, outputFile, reflectProperties(jgroupsChannel, prefix));
+         store(outputFormat, outputFile, nonDefault ? reflectNonDefaultProperties(jgroupsChannel, prefix) : reflectProperties(jgroupsChannel, prefix));
       } else {
          System.out.println("ERROR: unknown output type: " + outputType);
          usage();
          return;
       }
+      if (planCache != null) {
+         planCache.save();
+      }
    }
 
    private static void store(String outputFormat, String outputFile, Properties p) throws Exception {
-      if ("xml".equals(outputFormat)) {
-         storeSortedPropertiesAsXML(p, outputFile);
-      } else if ("standard".equals(outputFormat)) {
-         storeSortedProperties(p, outputFile);
-      } else {
-         System.out.println("ERROR: unknown output format: " + outputFormat);
-         usage();
-         return;
+      store(outputFormat, ConfigSnapshot.of(p), outputFile);
+   }
+
+   /**
+    * 
+    * Reflects the configurations twice, once through the generated accessor table and once by
+    * reflection only, and compares key, type and value of the entries, the two must not differ.
+    * 
+    * @param globalConfiguration
+    * @param cacheConfigurations
+    * @return descriptions of the differing entries, empty if there are none or if the generated
+    *         accessors aren't used
+    * @throws Exception
+    */
+   static List<String> compareAccessorPaths(GlobalConfiguration globalConfiguration, Map<String, Configuration> cacheConfigurations)
+         throws Exception {
+      List<String> diffs = new ArrayList<String>();
+      if (getGeneratedAccessors() == null) {
+         return diffs;
+      }
+      Run generated = new Run();
+      Run reflected = new Run();
+      reflected.reflectionOnly = true;
+      reflectSnapshot(globalConfiguration, cacheConfigurations, null, generated);
+      reflectSnapshot(globalConfiguration, cacheConfigurations, null, reflected);
+      Map<String, String> reflectedEntries = new HashMap<String, String>();
+      for (int i = 0; i < reflected.entries.size(); i++) {
+         reflectedEntries.put(reflected.entries.getKey(i), reflected.entries.getType(i) + ":" + reflected.entries.getString(i));
+      }
+      for (int i = 0; i < generated.entries.size(); i++) {
+         String key = generated.entries.getKey(i);
+         String value = generated.entries.getType(i) + ":" + generated.entries.getString(i);
+         String other = reflectedEntries.remove(key);
+         if (!value.equals(other)) {
+            diffs.add(key + ": generated " + value + ", reflection " + (other == null ? "missing" : other));
+         }
+      }
+      for (String key : reflectedEntries.keySet()) {
+         diffs.add(key + ": generated missing, reflection " + reflectedEntries.get(key));
+      }
+      return diffs;
+   }
+
+   /**
+    * 
+    * Flattens any object the way configurations are flattened, in a run of its own with the
+    * limits, deadline and getter timeout given by the system properties.
+    * 
+    * @param obj
+    * @param prefix
+    * @return entries of the run
+    * @throws Exception
+    */
+   static ConfigSnapshot reflectObject(Object obj, String prefix) throws Exception {
+      Run run = new Run();
+      reflect(obj, prefix, run);
+      return run.entries;
+   }
+
+   static Map<String, Configuration> buildCacheConfigurations(ConfigurationBuilderHolder holder) {
+      Map<String, Configuration> cacheConfigurations = new HashMap<String, Configuration>();
+      cacheConfigurations.put(BasicCacheContainer.DEFAULT_CACHE_NAME, holder.getDefaultConfigurationBuilder().build());
+      for (String cacheName : holder.getNamedConfigurationBuilders().keySet()) {
+         cacheConfigurations.put(cacheName, holder.getNamedConfigurationBuilders().get(cacheName).build());
       }
+      return cacheConfigurations;
    }
 
-   private static JChannel getInitializedJChannel(GlobalConfiguration globalConfiguration) {
+   static JChannel getInitializedJChannel(GlobalConfiguration globalConfiguration) {
       FakeJGroupsTransport fTransport = new FakeJGroupsTransport();
       fTransport.setConfiguration(globalConfiguration);
       fTransport.initChannel();
       return (JChannel) fTransport.getChannel();
    }
 
-   private static void getJGroupsConfig(String prefix, Properties p, JChannel jChannel) throws Exception {
+   private static void getJGroupsConfig(String prefix, JChannel jChannel, Run run) throws Exception {
       for (Protocol proto : jChannel.getProtocolStack().getProtocols()) {
-         reflectJGroupsProtocol(prefix, p, proto);
+         reflectJGroupsProtocol(prefix, proto, run);
       }
    }
 
@@ -352,63 +1048,942 @@ public class ConfigNormalizer {
       return r;
    }
 
-   private static void reflectJGroupsProtocol(String prefix, Properties p, Protocol proto) throws Exception {
-      ResourceDMBean bean = new ResourceDMBean(proto);
+   private static void reflectJGroupsProtocol(String prefix, Protocol proto, Run run) throws Exception {
+      final ResourceDMBean bean = new ResourceDMBean(proto);
+      String protoPrefix = (prefix == null || "".equals(prefix) ? "" : prefix + ".") + proto.getName() + ".";
       for (MBeanAttributeInfo info : bean.getMBeanInfo().getAttributes()) {
-         String propName = info.getName();
-         Object propValue = bean.getAttribute(propName);
-         String prefixDot = prefix == null || "".equals(prefix) ? "" : prefix + ".";
-         p.put(prefixDot + proto.getName() + "." + propName, propValue == null ? "null" : propValue.toString());
+         final String propName = info.getName();
+         Object propValue = invokeGetter(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+               return bean.getAttribute(propName);
+            }
+         }, proto.getClass().getName() + "." + propName, run);
+         if (propValue == TIMED_OUT) {
+            run.entries.add(protoPrefix + propName, TIMEOUT_MARKER);
+         } else {
+            run.entries.add(protoPrefix + propName, propValue == null ? "null" : propValue);
+         }
+      }
+   }
+
+   /**
+    * 
+    * @return pool of at most getterThreads threads with a queue of the same size, a getter is
+    *         rejected when all threads are blocked and the queue is full
+    */
+   private static synchronized ExecutorService getGetterExecutor() {
+      if (getterExecutor == null) {
+         int threads = Math.max(1, Integer.getInteger(PROP_GETTER_THREADS, DEFAULT_GETTER_THREADS));
+         ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(threads),
+               new ThreadFactory() {
+                  @Override
+                  public Thread newThread(Runnable r) {
+                     Thread t = new Thread(r, "ConfigNormalizer-getter");
+                     t.setDaemon(true);
+                     return t;
+                  }
+               });
+         executor.allowCoreThreadTimeOut(true);
+         getterExecutor = executor;
+      }
+      return getterExecutor;
+   }
+
+   /**
+    * 
+    * Getter call that puts its key to blockedGetters when abandoned while running and removes it
+    * when it finally returns.
+    */
+   private static class AbandonableGetter implements Callable<Object> {
+      private final Callable<Object> getter;
+      private final String key;
+      private boolean started;
+      private boolean finished;
+      private boolean abandoned;
+
+      public AbandonableGetter(Callable<Object> getter, String key) {
+         this.getter = getter;
+         this.key = key;
+      }
+
+      @Override
+      public Object call() throws Exception {
+         synchronized (this) {
+            if (abandoned) {
+               return null;
+            }
+            started = true;
+         }
+         try {
+            return getter.call();
+         } finally {
+            synchronized (this) {
+               finished = true;
+               if (abandoned) {
+                  blockedGetters.remove(key);
+               }
+            }
+         }
+      }
+
+      public synchronized void abandon() {
+         abandoned = true;
+         if (started && !finished) {
+            blockedGetters.add(key);
+         }
+      }
+   }
+
+   /**
+    * 
+    * Calls the getter, on the getter thread pool if the run is time bounded. A getter still blocked
+    * in an earlier call, or rejected because the pool is exhausted, times out without being called.
+    * 
+    * @param getter
+    * @param key
+    *           identifies the getter across runs, class name and getter name
+    * @return value returned by the getter or TIMED_OUT
+    */
+   private static Object invokeGetter(Callable<Object> getter, String key, Run run) throws Exception {
+      long timeout = run.getGetterTimeoutNanos();
+      if (timeout == Long.MAX_VALUE) {
+         return getter.call();
+      }
+      if (timeout <= 0 || blockedGetters.contains(key)) {
+         run.timeouts++;
+         return TIMED_OUT;
+      }
+      AbandonableGetter call = new AbandonableGetter(getter, key);
+      Future<Object> future;
+      try {
+         future = getGetterExecutor().submit(call);
+      } catch (RejectedExecutionException e) {
+         run.timeouts++;
+         return TIMED_OUT;
       }
+      try {
+         return future.get(timeout, TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+         call.abandon();
+         future.cancel(true);
+         run.timeouts++;
+         return TIMED_OUT;
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof Exception) {
+            throw (Exception) e.getCause();
+         }
+         throw e;
+      }
+   }
+
+   /**
+    * 
+    * @return true if the value looks like output of Object.toString()
+    */
+   private static boolean isPlainToStringValue(Class<?> cls, Object obj, String value) {
+      String name = cls.getName();
+      return value.length() > name.length() && value.charAt(name.length()) == '@' && value.startsWith(name)
+            && value.substring(name.length() + 1).equals(Integer.toHexString(obj.hashCode()));
    }
 
-   private static boolean hasPlainToString(Class<?> cls, Object obj) {
+   /**
+    * 
+    * How a value of the class is output as a leaf: LEAF_PLAIN if it has no toString of its own,
+    * LEAF_VALUE if it has, LEAF_PROBE if it overrides toString but the sample's toString still
+    * looked like Object.toString(), only those are checked for every instance. Composites (config
+    * beans, collections, maps, arrays) are output as leaves only when stringified, their sample
+    * isn't probed because toString of a self-referencing collection overflows the stack, they are
+    * LEAF_PROBE instead.
+    */
+   private static int classifyLeaf(Class<?> cls, Object sample, boolean composite) {
+      if (cls == String.class || cls.isEnum() || Number.class.isAssignableFrom(cls) || cls == Boolean.class || cls == Character.class) {
+         return LEAF_VALUE;
+      }
       try {
-         if (cls.getMethod("toString") == plainToString) {
-            return true;
+         if (plainToString.equals(cls.getMethod("toString"))) {
+            return LEAF_PLAIN;
          }
-         String plainToStringValue = cls.getName() + "@" + Integer.toHexString(obj.hashCode());
-         return plainToStringValue.equals(obj.toString());
+         if (composite) {
+            return LEAF_PROBE;
+         }
+         return isPlainToStringValue(cls, sample, sample.toString()) ? LEAF_PROBE : LEAF_VALUE;
       } catch (Exception e) {
-         return false;
+         return LEAF_VALUE;
       }
    }
 
-   private static void reflect(Object obj, Properties p, String prefix) throws Exception {
+   /**
+    * 
+    * State of one normalization run. Objects being flattened are kept in an identity based
+    * ancestor set to detect cycles, depth, collection size and number of properties of each root
+    * (global configuration, cache configuration) are limited by budgets read from system
+    * properties, see PROP_MAX_*. Every entry put by reflect() is appended to the typed entries of
+    * the run, so the entries of a flattened subtree form a contiguous range that can be replayed under a
+    * different prefix when the same object is reached again. Keys are built in a reused path
+    * buffer. Configurations built from the same
+    * builder share sub-objects, the memo is scoped to a run only because some of them (e.g.
+    * TypedProperties) are mutable.
+    */
+   private static class Run {
+      private final IdentityHashMap<Object, Subtree> subtrees = new IdentityHashMap<Object, Subtree>();
+      private final ConfigSnapshot entries;
+      private final StringBuilder path = new StringBuilder(256);
+      private final IdentityHashMap<Object, Boolean> ancestors;
+      private final int maxDepth;
+      private final int maxCollectionElements;
+      private final int maxProperties;
+      private final NormalizerRules rules;
+      private final long deadline;
+      private final long getterTimeout;
+      private int depth;
+      private int rootStart;
+      private boolean exhausted;
+      private int timeouts;
+      // cycle and depth limit markers put so far, they depend on where an object was reached
+      private int contextMarkers;
+      // deepest depth of a composite flattened so far
+      private int deepest;
+      private long subtreeLookups;
+      private long subtreeHits;
+      // getters of the generated accessor table are invoked by reflection too
+      private boolean reflectionOnly;
+
+      public Run() {
+         this(Long.getLong(PROP_TIMEOUT, 0), Long.getLong(PROP_GETTER_TIMEOUT, 0));
+      }
+
+      public Run(long timeoutMillis, long getterTimeoutMillis) {
+         deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+         getterTimeout = getterTimeoutMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(getterTimeoutMillis) : Long.MAX_VALUE;
+         entries = new ConfigSnapshot();
+         ancestors = new IdentityHashMap<Object, Boolean>();
+         maxDepth = Integer.getInteger(PROP_MAX_DEPTH, DEFAULT_MAX_DEPTH);
+         maxCollectionElements = Integer.getInteger(PROP_MAX_COLLECTION_ELEMENTS, DEFAULT_MAX_COLLECTION_ELEMENTS);
+         maxProperties = Integer.getInteger(PROP_MAX_PROPERTIES, DEFAULT_MAX_PROPERTIES);
+         rules = getRules();
+      }
+
+      /**
+       * 
+       * Scratch run flattening an object at the current depth of the parent, with its own entries
+       * and path but the same ancestors, so cycles through the parent are detected, and the same
+       * limits, deadline and getter timeout.
+       */
+      public Run(Run parent) {
+         deadline = parent.deadline;
+         getterTimeout = parent.getterTimeout;
+         entries = new ConfigSnapshot(16);
+         ancestors = parent.ancestors;
+         depth = parent.depth;
+         deepest = parent.depth;
+         maxDepth = parent.maxDepth;
+         maxCollectionElements = parent.maxCollectionElements;
+         maxProperties = parent.maxProperties;
+         rules = parent.rules;
+         reflectionOnly = parent.reflectionOnly;
+      }
+
+      private boolean isTimedOut() {
+         return deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0;
+      }
+
+      /**
+       * 
+       * @return time a getter may take, Long.MAX_VALUE if unbounded
+       */
+      private long getGetterTimeoutNanos() {
+         if (deadline == Long.MAX_VALUE) {
+            return getterTimeout;
+         }
+         return Math.min(getterTimeout, deadline - System.nanoTime());
+      }
+
+      /**
+       * 
+       * Appends getter name to the path.
+       * 
+       * @return length of the path to truncate to when done
+       */
+      private int pushName(String name) {
+         int mark = path.length();
+         if (mark > 0) {
+            path.append('.');
+         }
+         path.append(name);
+         return mark;
+      }
+
+      /**
+       * 
+       * Appends collection index to the path.
+       * 
+       * @return length of the path to truncate to when done
+       */
+      private int pushIndex(int index) {
+         int mark = path.length();
+         path.append('[').append(index).append(']');
+         return mark;
+      }
+
+      private void putAtPath(Object value) {
+         if (!exhausted) {
+            put(path.toString(), value);
+         }
+      }
+
+      private void put(String key, Object value) {
+         if (checkBudget(key)) {
+            entries.add(key, value);
+         }
+      }
+
+      private void putPrimitiveAtPath(byte type, long number) {
+         if (!exhausted) {
+            String key = path.toString();
+            if (checkBudget(key)) {
+               entries.add(key, type, number);
+            }
+         }
+      }
+
+      private void putCopy(String key, ConfigSnapshot from, int index) {
+         if (checkBudget(key)) {
+            entries.addCopy(key, from, index);
+         }
+      }
+
+      private void putCopy(String key, int index) {
+         if (checkBudget(key)) {
+            entries.addCopy(key, index);
+         }
+      }
+
+      /**
+       * 
+       * @return false if the entry can't be put, the first entry over budget is replaced with
+       *         the properties limit marker
+       */
+      private boolean checkBudget(String key) {
+         if (exhausted) {
+            return false;
+         }
+         if (entries.size() - rootStart >= maxProperties) {
+            exhausted = true;
+            entries.add(key, PROPERTIES_LIMIT_MARKER);
+            return false;
+         }
+         return true;
+      }
+   }
+
+   private static NormalizerRules getRules() {
+      if (rules == null) {
+         rules = NormalizerRules.load();
+      }
+      return rules;
+   }
+
+   /**
+    * 
+    * How objects of a class are flattened, computed once per class. The kind of the class
+    * (KIND_*), how it's output as a leaf (LEAF_*), getters of config beans and the rules that apply
+    * to the class and its getters are resolved here so that reflect() doesn't walk the class
+    * hierarchy, probe toString or check class and method rules for every object.
+    */
+   private static class ClassPlan {
+      private final int action;
+      private final int kind;
+      private final int leaf;
+      private final Accessor[] accessors;
+
+      public ClassPlan(int action, int kind, int leaf, Accessor[] accessors) {
+         this.action = action;
+         this.kind = kind;
+         this.leaf = leaf;
+         this.accessors = accessors;
+      }
+   }
+
+   /**
+    * 
+    * Getter of a config bean, either a Method or an entry of the generated accessor table.
+    */
+   private static class Accessor {
+      private final Method method;
+      private final int classIndex;
+      private final int getterIndex;
+      private final String name;
+      private final int action;
+      // AccessorTable.getValueType of a generated getter
+      private final byte valueType;
+
+      public Accessor(Method method, int action) {
+         this.method = method;
+         this.classIndex = -1;
+         this.getterIndex = -1;
+         this.name = method.getName();
+         this.action = action;
+         this.valueType = AccessorTable.REFERENCE;
+      }
+
+      public Accessor(int classIndex, int getterIndex, String name, int action, byte valueType) {
+         this.method = null;
+         this.classIndex = classIndex;
+         this.getterIndex = getterIndex;
+         this.name = name;
+         this.action = action;
+         this.valueType = valueType;
+      }
+   }
+
+   /**
+    * 
+    * @return accessor table generated at build time if it matches the Infinispan version on the
+    *         classpath, null otherwise
+    */
+   private static synchronized AccessorTable getGeneratedAccessors() {
+      if (!generatedAccessorsLoaded) {
+         generatedAccessorsLoaded = true;
+         if (!Boolean.getBoolean(PROP_REFLECTION_ONLY)) {
+            try {
+               AccessorTable table = (AccessorTable) Class.forName(GENERATED_ACCESSORS).newInstance();
+               if (table.getInfinispanVersion().equals(Version.printVersion())) {
+                  generatedAccessors = table;
+               } else {
+                  log.debug("Generated accessors are for " + table.getInfinispanVersion() + ", running " + Version.printVersion()
+                        + ", using reflection");
+               }
+            } catch (ClassNotFoundException e) {
+               log.debug("Generated accessors not available, using reflection");
+            } catch (Throwable e) {
+               log.debug("Can't use generated accessors, using reflection", e);
+            }
+         }
+      }
+      return generatedAccessors;
+   }
+
+   /**
+    * 
+    * @return accessors resolved from the getter names in the reflection plan cache, null if they
+    *         don't resolve any more, all of them are looked up in one Class.getMethods() call
+    */
+   private static Accessor[] getCachedAccessors(Class<?> cls, String[] names, NormalizerRules r) {
+      Map<String, Method> methods = new HashMap<String, Method>();
+      for (Method m : cls.getMethods()) {
+         if (m.getParameterTypes().length == 0 && !m.isBridge() && Modifier.isPublic(m.getDeclaringClass().getModifiers())) {
+            methods.put(m.getName(), m);
+         }
+      }
+      List<Accessor> list = new ArrayList<Accessor>();
+      for (String name : names) {
+         Method m = methods.get(name);
+         if (m == null) {
+            planCache.invalidate(cls.getName());
+            return null;
+         }
+         int action = r.getMethodAction(cls, name);
+         if (action != NormalizerRules.SKIP) {
+            list.add(new Accessor(m, action));
+         }
+      }
+      return list.toArray(new Accessor[list.size()]);
+   }
+
+   private static Accessor[] getGeneratedAccessors(Class<?> cls, NormalizerRules r) {
+      AccessorTable table = getGeneratedAccessors();
+      if (table == null) {
+         return null;
+      }
+      try {
+         int classIndex = table.indexOf(cls);
+         if (classIndex == -1) {
+            return null;
+         }
+         String[] names = table.getGetterNames(classIndex);
+         List<Accessor> list = new ArrayList<Accessor>();
+         for (int i = 0; i < names.length; i++) {
+            int action = r.getMethodAction(cls, names[i]);
+            if (action != NormalizerRules.SKIP) {
+               list.add(new Accessor(classIndex, i, names[i], action, table.getValueType(classIndex, i)));
+            }
+         }
+         return list.toArray(new Accessor[list.size()]);
+      } catch (LinkageError e) {
+         return null;
+      }
+   }
+
+   private static int classifyKind(Class<?> cls) {
+      if (cls.getName().startsWith("org.infinispan.config") && !cls.isEnum()) {
+         return KIND_CONFIG_BEAN;
+      } else if (List.class.isAssignableFrom(cls) || SortedSet.class.isAssignableFrom(cls)) {
+         return KIND_COLLECTION;
+      } else if (Collection.class.isAssignableFrom(cls)) {
+         return KIND_SET;
+      } else if (cls.isArray()) {
+         return KIND_ARRAY;
+      } else if (Map.class.isAssignableFrom(cls)) {
+         return KIND_MAP;
+      } else if (cls.isEnum() || (cls.getSuperclass() != null && cls.getSuperclass().isEnum())) {
+         return KIND_ENUM;
+      } else {
+         return KIND_VALUE;
+      }
+   }
+
+   private static ClassPlan getClassPlan(Class<?> cls, Object sample) {
+      ClassPlan plan = planByClass.get(cls);
+      if (plan == null) {
+         NormalizerRules r = getRules();
+         ReflectionPlanCache cache = planCache;
+         ReflectionPlanCache.Entry cached = cache == null ? null : cache.get(cls.getName());
+         int kind;
+         int leaf;
+         String[] names = null;
+         if (cached != null) {
+            kind = cached.getKind();
+            leaf = cached.getLeaf();
+            names = cached.getGetters();
+         } else {
+            kind = classifyKind(cls);
+            leaf = classifyLeaf(cls, sample, kind != KIND_VALUE && kind != KIND_ENUM);
+         }
+         Accessor[] accessors = null;
+         if (kind == KIND_CONFIG_BEAN) {
+            accessors = getGeneratedAccessors(cls, r);
+            if (accessors == null && names != null) {
+               accessors = getCachedAccessors(cls, names, r);
+            }
+            if (accessors == null) {
+               List<Accessor> list = new ArrayList<Accessor>();
+               List<String> walked = new ArrayList<String>();
+               for (Method m : getMethods(cls)) {
+                  if (m.getParameterTypes().length != 0 || "toString".equals(m.getName()) || "hashCode".equals(m.getName())) {
+                     continue;
+                  }
+                  // Method.invoke would throw IllegalAccessException for anything else
+                  if (!Modifier.isPublic(m.getModifiers()) || !Modifier.isPublic(m.getDeclaringClass().getModifiers())) {
+                     continue;
+                  }
+                  walked.add(m.getName());
+                  int action = r.getMethodAction(cls, m.getName());
+                  if (action != NormalizerRules.SKIP) {
+                     list.add(new Accessor(m, action));
+                  }
+               }
+               accessors = list.toArray(new Accessor[list.size()]);
+               names = walked.toArray(new String[walked.size()]);
+               cached = null;
+            }
+         }
+         if (cache != null && cached == null) {
+            cache.put(cls.getName(), new ReflectionPlanCache.Entry(kind, leaf, names));
+         }
+         plan = new ClassPlan(r.getClassAction(cls), kind, leaf, accessors);
+         planByClass.put(cls, plan);
+      }
+      return plan;
+   }
+
+   private static class Getter implements Callable<Object> {
+      private final Accessor accessor;
+      private final Object obj;
+
+      private final boolean reflectionOnly;
+
+      public Getter(Accessor accessor, Object obj, boolean reflectionOnly) {
+         this.accessor = accessor;
+         this.obj = obj;
+         this.reflectionOnly = reflectionOnly;
+      }
+
+      @Override
+      public Object call() throws Exception {
+         return call(accessor, obj, reflectionOnly);
+      }
+
+      private static Object call(Accessor accessor, Object obj, boolean reflectionOnly) throws Exception {
+         if (accessor.method != null) {
+            return accessor.method.invoke(obj);
+         }
+         if (!reflectionOnly) {
+            try {
+               if (accessor.valueType == AccessorTable.REFERENCE) {
+                  return generatedAccessors.get(accessor.classIndex, accessor.getterIndex, obj);
+               }
+               // handed over from the getter thread, boxed like Method.invoke would box it
+               return box(accessor.valueType, generatedAccessors.getPrimitive(accessor.classIndex, accessor.getterIndex, obj));
+            } catch (LinkageError e) {
+               // the class changed since the table was generated
+            }
+         }
+         return obj.getClass().getMethod(accessor.name).invoke(obj);
+      }
+   }
+
+   /**
+    * 
+    * Entries of a flattened object. Only subtrees without cycle and depth limit markers are
+    * recorded, those are the same wherever the object is reached, as long as it's reached high
+    * enough for the whole height to fit under max depth.
+    */
+   private static class Subtree {
+      private final int prefixLength;
+      private final int start;
+      private final int end;
+      private final int height;
+
+      public Subtree(int prefixLength, int start, int end, int height) {
+         this.prefixLength = prefixLength;
+         this.start = start;
+         this.end = end;
+         this.height = height;
+      }
+
+      /**
+       * 
+       * Puts the entries of the subtree again, with the recorded prefix replaced by the current
+       * path of the run.
+       */
+      private void replay(Run run) {
+         StringBuilder path = run.path;
+         int mark = path.length();
+         for (int i = start; i < end; i++) {
+            String key = run.entries.getKey(i);
+            int from = prefixLength;
+            if (from < key.length()) {
+               char c = key.charAt(from);
+               if (mark == 0 && c == '.') {
+                  from++;
+               } else if (mark > 0 && prefixLength == 0 && c != '[') {
+                  path.append('.');
+               }
+            }
+            path.append(key, from, key.length());
+            run.putCopy(path.toString(), i);
+            path.setLength(mark);
+         }
+      }
+   }
+
+   private static void reflect(Object obj, String prefix, Run run) throws Exception {
+      run.path.setLength(0);
+      if (prefix != null) {
+         run.path.append(prefix);
+      }
+      reflect(obj, run);
+   }
+
+   /**
+    * 
+    * Flattens the object under the current path of the run. The path is a reused buffer, segments
+    * are appended before descending and truncated back after, a key String is only created when an
+    * entry is put.
+    */
+   private static void reflect(Object obj, Run run) throws Exception {
+      if (run.depth == 0) {
+         run.rootStart = run.entries.size();
+         run.exhausted = false;
+      } else if (run.exhausted) {
+         return;
+      }
+      if (run.isTimedOut()) {
+         run.timeouts++;
+         run.putAtPath(TIMEOUT_MARKER);
+         return;
+      }
+      if (run.rules.hasKeyRules()) {
+         int keyAction = run.rules.getKeyAction(run.path);
+         if (keyAction == NormalizerRules.SKIP) {
+            return;
+         } else if (keyAction == NormalizerRules.STRINGIFY) {
+            reflectLeaf(obj, obj == null ? null : getClassPlan(obj.getClass(), obj), run);
+            return;
+         }
+      }
       if (obj == null) {
-         p.put(prefix, "null");
+         run.putAtPath("null");
          return;
       }
-      Class<?> cls = obj.getClass();
-      if (cls.getName().startsWith("org.infinispan.config") && !cls.isEnum()) {
-         for (Method m : getMethods(obj.getClass())) {
-            if (m.getParameterTypes().length != 0 || "toString".equals(m.getName()) || "hashCode".equals(m.getName())) {
-               continue;
+      ClassPlan plan = getClassPlan(obj.getClass(), obj);
+      if (plan.action == NormalizerRules.SKIP) {
+         return;
+      }
+      if (plan.action == NormalizerRules.STRINGIFY) {
+         reflectLeaf(obj, plan, run);
+      } else if (plan.kind == KIND_CONFIG_BEAN || plan.kind == KIND_COLLECTION || plan.kind == KIND_ARRAY || plan.kind == KIND_MAP
+            || plan.kind == KIND_SET) {
+         // key rules depend on the whole key, entries recorded under another prefix can't be reused
+         boolean memo = !run.rules.hasKeyRules();
+         if (memo) {
+            run.subtreeLookups++;
+            Subtree subtree = run.subtrees.get(obj);
+            if (subtree != null && run.depth + subtree.height <= run.maxDepth) {
+               run.subtreeHits++;
+               run.deepest = Math.max(run.deepest, run.depth + subtree.height);
+               subtree.replay(run);
+               return;
             }
+         }
+         if (run.ancestors.containsKey(obj)) {
+            run.contextMarkers++;
+            run.putAtPath(CYCLE_MARKER);
+            return;
+         }
+         if (run.depth >= run.maxDepth) {
+            run.contextMarkers++;
+            run.putAtPath(DEPTH_LIMIT_MARKER);
+            return;
+         }
+         int start = run.entries.size();
+         int timeoutsBefore = run.timeouts;
+         int markersBefore = run.contextMarkers;
+         int deepestBefore = run.deepest;
+         run.ancestors.put(obj, Boolean.TRUE);
+         run.depth++;
+         run.deepest = run.depth;
+         try {
+            reflectComposite(obj, plan, run);
+         } finally {
+            run.ancestors.remove(obj);
+            run.depth--;
+         }
+         int height = run.deepest - run.depth;
+         run.deepest = Math.max(deepestBefore, run.deepest);
+         if (memo && !run.exhausted && run.timeouts == timeoutsBefore && run.contextMarkers == markersBefore) {
+            run.subtrees.put(obj, new Subtree(run.path.length(), start, run.entries.size(), height));
+         }
+      } else {
+         reflectLeaf(obj, plan, run);
+      }
+   }
+
+   private static Object box(byte valueType, long value) {
+      if (valueType == ConfigSnapshot.TYPE_INT) {
+         return Integer.valueOf((int) value);
+      } else if (valueType == ConfigSnapshot.TYPE_LONG) {
+         return Long.valueOf(value);
+      }
+      return Boolean.valueOf(value != 0);
+   }
+
+   /**
+    * 
+    * Calls a generated getter of a primitive and puts the value into the typed column of the
+    * snapshot without boxing it, with the same deadline and key rule checks reflect() does for a
+    * leaf. A stringify rule gives the same entry as no rule for a primitive.
+    */
+   private static void reflectPrimitive(Accessor accessor, Object obj, Run run) throws Exception {
+      if (run.exhausted) {
+         return;
+      }
+      if (run.isTimedOut()) {
+         run.timeouts++;
+         run.putAtPath(TIMEOUT_MARKER);
+         return;
+      }
+      if (run.rules.hasKeyRules() && run.rules.getKeyAction(run.path) == NormalizerRules.SKIP) {
+         return;
+      }
+      long value;
+      try {
+         value = generatedAccessors.getPrimitive(accessor.classIndex, accessor.getterIndex, obj);
+      } catch (LinkageError e) {
+         // the class changed since the table was generated
+         reflect(obj.getClass().getMethod(accessor.name).invoke(obj), run);
+         return;
+      }
+      run.putPrimitiveAtPath(accessor.valueType, value);
+   }
+
+   private static void reflectLeaf(Object obj, ClassPlan plan, Run run) {
+      if (obj == null) {
+         run.putAtPath("null");
+      } else if (plan.leaf == LEAF_PLAIN) {
+         // we have a class that doesn't have a nice toString implementation
+         run.putAtPath(obj.getClass().getName());
+      } else if (plan.leaf == LEAF_PROBE) {
+         String value = obj.toString();
+         run.putAtPath(isPlainToStringValue(obj.getClass(), obj, value) ? obj.getClass().getName() : value);
+      } else {
+         // we have a single value
+         run.putAtPath(obj);
+      }
+   }
+
+   /**
+    * 
+    * Element of an unordered collection flattened in a scratch run, ordered by its normalized
+    * content.
+    */
+   private static class FlatElement implements Comparable<FlatElement> {
+      private final Object element;
+      private final ConfigSnapshot entries;
+      private final String sortKey;
+      private final int seq;
+
+      public FlatElement(Object element, ConfigSnapshot entries, int seq) {
+         this.element = element;
+         this.entries = entries;
+         this.seq = seq;
+         TreeMap<String, String> sorted = new TreeMap<String, String>();
+         for (int i = 0; i < entries.size(); i++) {
+            sorted.put(entries.getKey(i), entries.getString(i));
+         }
+         StringBuilder sb = new StringBuilder();
+         for (Map.Entry<String, String> ent : sorted.entrySet()) {
+            sb.append(ent.getKey()).append('=').append(ent.getValue()).append('\n');
+         }
+         this.sortKey = sb.toString();
+      }
+
+      @Override
+      public int compareTo(FlatElement o) {
+         int c = sortKey.compareTo(o.sortKey);
+         // equal content gives equal output, seq only keeps both
+         return c != 0 ? c : (seq < o.seq ? -1 : (seq == o.seq ? 0 : 1));
+      }
+   }
+
+   /**
+    * 
+    * Outputs elements of an unordered collection ordered by their normalized content, so that
+    * equal sets produce the same keys regardless of hashing or iteration order. Every element is
+    * flattened once in a scratch run, the first max collection elements in that order are kept
+    * (the selection is bounded, the rest is dropped as it comes) and their entries are copied under
+    * [i]. With key rules the kept elements are reflected again under their real keys, which the
+    * rules may match.
+    */
+   private static void reflectSet(Collection<?> collection, Run run) throws Exception {
+      TreeSet<FlatElement> selected = new TreeSet<FlatElement>();
+      boolean truncated = false;
+      int seq = 0;
+      for (Object element : collection) {
+         Run scratch = new Run(run);
+         reflect(element, "", scratch);
+         run.timeouts += scratch.timeouts;
+         run.contextMarkers += scratch.contextMarkers;
+         run.deepest = Math.max(run.deepest, scratch.deepest);
+         FlatElement flat = new FlatElement(element, scratch.entries, seq++);
+         if (selected.size() == run.maxCollectionElements && (selected.isEmpty() || flat.compareTo(selected.last()) > 0)) {
+            truncated = true;
+            continue;
+         }
+         selected.add(flat);
+         if (selected.size() > run.maxCollectionElements) {
+            selected.pollLast();
+            truncated = true;
+         }
+      }
+      int i = 0;
+      for (FlatElement flat : selected) {
+         int mark = run.pushIndex(i++);
+         if (run.rules.hasKeyRules()) {
+            reflect(flat.element, run);
+         } else {
+            int elementPath = run.path.length();
+            for (int j = 0; j < flat.entries.size(); j++) {
+               String key = flat.entries.getKey(j);
+               if (key.length() > 0) {
+                  if (key.charAt(0) != '[') {
+                     run.path.append('.');
+                  }
+                  run.path.append(key);
+               }
+               run.putCopy(run.path.toString(), flat.entries, j);
+               run.path.setLength(elementPath);
+            }
+         }
+         run.path.setLength(mark);
+      }
+      if (truncated) {
+         int mark = run.pushIndex(run.maxCollectionElements);
+         run.putAtPath(TRUNCATED_MARKER);
+         run.path.setLength(mark);
+      }
+   }
+
+   private static void reflectComposite(Object obj, ClassPlan plan, Run run) throws Exception {
+      if (plan.kind == KIND_CONFIG_BEAN) {
+         for (Accessor accessor : plan.accessors) {
+            int mark = run.pushName(accessor.name);
             try {
-               String prefixDot = prefix == null || "".equals(prefix) ? "" : prefix + ".";
-               reflect(m.invoke(obj), p, prefixDot + m.getName());
+               if (accessor.valueType != AccessorTable.REFERENCE && !run.reflectionOnly && run.getGetterTimeoutNanos() == Long.MAX_VALUE) {
+                  reflectPrimitive(accessor, obj, run);
+                  run.path.setLength(mark);
+                  continue;
+               }
+               Object value = run.getGetterTimeoutNanos() == Long.MAX_VALUE ? Getter.call(accessor, obj, run.reflectionOnly) : invokeGetter(
+                     new Getter(accessor, obj, run.reflectionOnly),
+                     obj.getClass().getName() + "." + accessor.name, run);
+               if (value == TIMED_OUT) {
+                  run.putAtPath(TIMEOUT_MARKER);
+               } else if (accessor.action == NormalizerRules.STRINGIFY) {
+                  reflectLeaf(value, value == null ? null : getClassPlan(value.getClass(), value), run);
+               } else {
+                  reflect(value, run);
+               }
             } catch (IllegalAccessException e) {
                // ok
             }
+            run.path.setLength(mark);
          }
-      } else if (Collection.class.isAssignableFrom(cls)) {
+      } else if (plan.kind == KIND_MAP) {
+         // entries sorted by key, TypedProperties and the like diff per entry instead of one toString,
+         // only the smallest max collection elements keys are kept, so a huge map isn't copied
+         TreeMap<String, Object> sorted = new TreeMap<String, Object>();
+         boolean truncated = false;
+         for (Map.Entry<?, ?> ent : ((Map<?, ?>) obj).entrySet()) {
+            String key = String.valueOf(ent.getKey());
+            if (sorted.size() == run.maxCollectionElements && (sorted.isEmpty() || key.compareTo(sorted.lastKey()) > 0)) {
+               truncated = true;
+               continue;
+            }
+            sorted.put(key, ent.getValue());
+            if (sorted.size() > run.maxCollectionElements) {
+               sorted.pollLastEntry();
+               truncated = true;
+            }
+         }
+         for (Map.Entry<String, Object> ent : sorted.entrySet()) {
+            int mark = run.pushName(ent.getKey());
+            reflect(ent.getValue(), run);
+            run.path.setLength(mark);
+         }
+         if (truncated) {
+            run.putAtPath(TRUNCATED_MARKER);
+         }
+      } else if (plan.kind == KIND_SET) {
+         reflectSet((Collection<?>) obj, run);
+      } else if (plan.kind == KIND_COLLECTION) {
          Collection<?> collection = (Collection<?>) obj;
+         int size = collection.size();
          Iterator<?> iter = collection.iterator();
-         for (int i = 0; i < collection.size(); i++) {
-            reflect(iter.next(), p, prefix + "[" + i + "]");
+         for (int i = 0; i < Math.min(size, run.maxCollectionElements); i++) {
+            int mark = run.pushIndex(i);
+            reflect(iter.next(), run);
+            run.path.setLength(mark);
          }
-      } else if (cls.isArray()) {
-         Object[] a = (Object[]) obj;
-         for (int i = 0; i < a.length; i++) {
-            reflect(a[i], p, prefix + "[" + i + "]");
+         if (size > run.maxCollectionElements) {
+            int mark = run.pushIndex(run.maxCollectionElements);
+            run.putAtPath(TRUNCATED_MARKER);
+            run.path.setLength(mark);
          }
-      } else if (hasPlainToString(cls, obj)) {
-         // we have a class that doesn't have a nice toString implementation
-         p.put(prefix, cls.getName());
       } else {
-         // we have a single value
-         p.put(prefix, obj.toString());
+         int length = Array.getLength(obj);
+         Object[] a = obj instanceof Object[] ? (Object[]) obj : null;
+         for (int i = 0; i < Math.min(length, run.maxCollectionElements); i++) {
+            int mark = run.pushIndex(i);
+            reflect(a != null ? a[i] : Array.get(obj, i), run);
+            run.path.setLength(mark);
+         }
+         if (length > run.maxCollectionElements) {
+            int mark = run.pushIndex(run.maxCollectionElements);
+            run.putAtPath(TRUNCATED_MARKER);
+            run.path.setLength(mark);
+         }
       }
    }
 }
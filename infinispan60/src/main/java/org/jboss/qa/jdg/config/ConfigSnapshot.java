@@ -0,0 +1,329 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 
+ * Normalized configuration in typed columns, as produced by ConfigNormalizer. Integers, longs,
+ * booleans and enums are kept in a primitive column (enums by ordinal, next to their interned
+ * name), everything else as a string interned within the snapshot, so a retained snapshot doesn't
+ * hold a String object per value and numeric values can be compared without parsing. Entries are
+ * in traversal order, a key put more than once is rendered with its last value.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class ConfigSnapshot {
+
+   public static final byte TYPE_STRING = 0;
+   public static final byte TYPE_INT = 1;
+   public static final byte TYPE_LONG = 2;
+   public static final byte TYPE_BOOLEAN = 3;
+   public static final byte TYPE_ENUM = 4;
+
+   private String[] keys;
+   private byte[] types;
+   private long[] numbers;
+   private String[] strings;
+   private int size;
+   private Map<String, String> pool = new HashMap<String, String>();
+
+   public ConfigSnapshot() {
+      this(256);
+   }
+
+   public ConfigSnapshot(int capacity) {
+      keys = new String[capacity];
+      types = new byte[capacity];
+      numbers = new long[capacity];
+      strings = new String[capacity];
+   }
+
+   /**
+    * 
+    * @return number of entries
+    */
+   public int size() {
+      return size;
+   }
+
+   public String getKey(int i) {
+      return keys[i];
+   }
+
+   /**
+    * 
+    * @return one of TYPE_*
+    */
+   public byte getType(int i) {
+      return types[i];
+   }
+
+   /**
+    * 
+    * @return value of an int, long or boolean (1 or 0) entry, ordinal of an enum entry
+    */
+   public long getLong(int i) {
+      if (types[i] == TYPE_STRING) {
+         throw new IllegalArgumentException("Entry " + keys[i] + " is not numeric");
+      }
+      return numbers[i];
+   }
+
+   public boolean getBoolean(int i) {
+      return types[i] == TYPE_BOOLEAN ? numbers[i] != 0 : Boolean.parseBoolean(getString(i));
+   }
+
+   /**
+    * 
+    * @return value as output to properties
+    */
+   public String getString(int i) {
+      switch (types[i]) {
+         case TYPE_INT:
+         case TYPE_LONG:
+            return String.valueOf(numbers[i]);
+         case TYPE_BOOLEAN:
+            return numbers[i] != 0 ? "true" : "false";
+         default:
+            return strings[i];
+      }
+   }
+
+   /**
+    * 
+    * @return index of the last entry with given key, -1 if there is none
+    */
+   public int indexOf(String key) {
+      for (int i = size - 1; i >= 0; i--) {
+         if (keys[i].equals(key)) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * 
+    * Value of the key as output to properties, null if there is no such key.
+    */
+   public String get(String key) {
+      int i = indexOf(key);
+      return i == -1 ? null : getString(i);
+   }
+
+   /**
+    * 
+    * Snapshot of string entries of the properties.
+    */
+   static ConfigSnapshot of(Properties properties) {
+      ConfigSnapshot snapshot = new ConfigSnapshot(Math.max(16, properties.size()));
+      for (String key : properties.stringPropertyNames()) {
+         snapshot.add(key, properties.getProperty(key));
+      }
+      return snapshot;
+   }
+
+   /**
+    * 
+    * @param order
+    *           order of keys, null for natural order
+    * @return indexes of the entries sorted by key, of entries with the same key only the last one
+    */
+   int[] sortedIndexes(Comparator<String> order) {
+      int[] indexes = new int[size];
+      for (int i = 0; i < size; i++) {
+         indexes[i] = i;
+      }
+      sort(indexes, new int[size], 0, size, order);
+      int n = 0;
+      for (int i = 0; i < size; i++) {
+         if (i + 1 == size || compare(indexes[i], indexes[i + 1], order) != 0) {
+            indexes[n++] = indexes[i];
+         }
+      }
+      return n == size ? indexes : Arrays.copyOf(indexes, n);
+   }
+
+   private int compare(int i, int j, Comparator<String> order) {
+      return order == null ? keys[i].compareTo(keys[j]) : order.compare(keys[i], keys[j]);
+   }
+
+   /**
+    * 
+    * Stable merge sort of entry indexes by key, so that of equal keys the last put comes last.
+    */
+   private void sort(int[] a, int[] tmp, int from, int to, Comparator<String> order) {
+      if (to - from < 2) {
+         return;
+      }
+      int mid = (from + to) >>> 1;
+      sort(a, tmp, from, mid, order);
+      sort(a, tmp, mid, to, order);
+      if (compare(a[mid - 1], a[mid], order) <= 0) {
+         return;
+      }
+      System.arraycopy(a, from, tmp, from, to - from);
+      int i = from;
+      int j = mid;
+      int k = from;
+      while (i < mid && j < to) {
+         a[k++] = compare(tmp[j], tmp[i], order) < 0 ? tmp[j++] : tmp[i++];
+      }
+      while (i < mid) {
+         a[k++] = tmp[i++];
+      }
+      while (j < to) {
+         a[k++] = tmp[j++];
+      }
+   }
+
+   public Properties toProperties() {
+      return toProperties(0, size);
+   }
+
+   Properties toProperties(int from, int to) {
+      Properties p = new Properties();
+      for (int i = from; i < to; i++) {
+         p.put(keys[i], getString(i));
+      }
+      return p;
+   }
+
+   /**
+    * 
+    * Appends entry, the value is typed by its class, values of other than the primitive column
+    * types are stored as their toString().
+    */
+   void add(String key, Object value) {
+      int i = grow();
+      keys[i] = key;
+      if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+         types[i] = TYPE_INT;
+         numbers[i] = ((Number) value).longValue();
+      } else if (value instanceof Long) {
+         types[i] = TYPE_LONG;
+         numbers[i] = (Long) value;
+      } else if (value instanceof Boolean) {
+         types[i] = TYPE_BOOLEAN;
+         numbers[i] = (Boolean) value ? 1 : 0;
+      } else if (value instanceof Enum) {
+         types[i] = TYPE_ENUM;
+         numbers[i] = ((Enum<?>) value).ordinal();
+         strings[i] = intern(value.toString());
+      } else {
+         types[i] = TYPE_STRING;
+         strings[i] = intern(String.valueOf(value));
+      }
+   }
+
+   /**
+    * 
+    * Appends an entry of the type with the value as output to properties, as read back from a
+    * stored snapshot. Enum entries read back have no ordinal, getLong returns -1 for them.
+    */
+   void add(String key, byte type, String value) {
+      if (type == TYPE_INT || type == TYPE_LONG) {
+         add(key, type, Long.parseLong(value));
+      } else if (type == TYPE_BOOLEAN) {
+         add(key, type, "true".equals(value) ? 1 : 0);
+      } else {
+         int i = grow();
+         keys[i] = key;
+         types[i] = type == TYPE_ENUM ? TYPE_ENUM : TYPE_STRING;
+         numbers[i] = -1;
+         strings[i] = intern(value);
+      }
+   }
+
+   /**
+    * 
+    * Appends an entry of TYPE_INT, TYPE_LONG or TYPE_BOOLEAN (1 or 0), the value isn't boxed.
+    */
+   void add(String key, byte type, long number) {
+      int i = grow();
+      keys[i] = key;
+      types[i] = type;
+      numbers[i] = number;
+   }
+
+   /**
+    * 
+    * Appends copy of the value of entry at index under a different key.
+    */
+   void addCopy(String key, int index) {
+      int i = grow();
+      keys[i] = key;
+      types[i] = types[index];
+      numbers[i] = numbers[index];
+      strings[i] = strings[index];
+   }
+
+   /**
+    * 
+    * Appends copy of the value of entry at index of another snapshot.
+    */
+   void addCopy(String key, ConfigSnapshot from, int index) {
+      int i = grow();
+      keys[i] = key;
+      types[i] = from.types[index];
+      numbers[i] = from.numbers[index];
+      strings[i] = from.strings[index];
+   }
+
+   /**
+    * 
+    * Trims the columns and drops the intern pool, to be called when nothing more is added.
+    */
+   void compact() {
+      keys = Arrays.copyOf(keys, size);
+      types = Arrays.copyOf(types, size);
+      numbers = Arrays.copyOf(numbers, size);
+      strings = Arrays.copyOf(strings, size);
+      pool = null;
+   }
+
+   private String intern(String s) {
+      if (pool == null) {
+         pool = new HashMap<String, String>();
+      }
+      String interned = pool.get(s);
+      if (interned == null) {
+         pool.put(s, s);
+         interned = s;
+      }
+      return interned;
+   }
+
+   private int grow() {
+      if (size == keys.length) {
+         int capacity = Math.max(16, size * 2);
+         keys = Arrays.copyOf(keys, capacity);
+         types = Arrays.copyOf(types, capacity);
+         numbers = Arrays.copyOf(numbers, capacity);
+         strings = Arrays.copyOf(strings, capacity);
+      }
+      return size++;
+   }
+}
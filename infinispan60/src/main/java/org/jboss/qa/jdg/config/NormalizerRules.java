@@ -0,0 +1,190 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.jboss.logging.Logger;
+
+/**
+ * 
+ * Rules telling ConfigNormalizer which getters to skip and which objects to output by toString()
+ * without descending into them. Read from config-normalizer-rules.txt of the module or from the
+ * file given by system property org.jboss.qa.jdg.config.rules, see the bundled file for the
+ * format. Class and method rules are resolved once per class, only key rules are checked for each
+ * property and only if there are any. Key rules also turn off replaying of objects already output
+ * under another key, because a rule may match only one of the keys.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class NormalizerRules {
+
+   private static Logger log = Logger.getLogger(NormalizerRules.class);
+
+   public static final String PROP_RULES = "org.jboss.qa.jdg.config.rules";
+   public static final String DEFAULT_RULES = "config-normalizer-rules.txt";
+
+   public static final int INCLUDE = 0;
+   public static final int SKIP = 1;
+   public static final int STRINGIFY = 2;
+
+   private final Map<String, Integer> classRules = new HashMap<String, Integer>();
+   private final Map<String, Integer> methodRules = new HashMap<String, Integer>();
+   private final List<Pattern> keyPatterns = new ArrayList<Pattern>();
+   private final List<Integer> keyActions = new ArrayList<Integer>();
+
+   /**
+    * 
+    * Loads rules from the file given by system property org.jboss.qa.jdg.config.rules or from the
+    * bundled defaults. Errors are logged and result in no rules.
+    * 
+    * @return rules
+    */
+   public static NormalizerRules load() {
+      NormalizerRules rules = new NormalizerRules();
+      String file = System.getProperty(PROP_RULES);
+      try {
+         InputStream in = file != null ? new FileInputStream(file) : NormalizerRules.class.getClassLoader().getResourceAsStream(DEFAULT_RULES);
+         if (in == null) {
+            return rules;
+         }
+         try {
+            rules.parse(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+         } finally {
+            in.close();
+         }
+      } catch (Exception e) {
+         log.error("Error while loading normalizer rules from " + (file != null ? file : DEFAULT_RULES), e);
+      }
+      return rules;
+   }
+
+   private void parse(BufferedReader reader) throws Exception {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+         lineNumber++;
+         line = line.trim();
+         if (line.length() == 0 || line.startsWith("#")) {
+            continue;
+         }
+         String[] parts = line.split("\\s+");
+         int action;
+         if (parts.length != 3) {
+            action = -1;
+         } else if ("skip".equals(parts[0])) {
+            action = SKIP;
+         } else if ("stringify".equals(parts[0])) {
+            action = STRINGIFY;
+         } else {
+            action = -1;
+         }
+         if (action != -1 && "class".equals(parts[1])) {
+            classRules.put(parts[2], action);
+         } else if (action != -1 && "method".equals(parts[1]) && parts[2].lastIndexOf('.') > 0) {
+            methodRules.put(parts[2], action);
+         } else if (action != -1 && "key".equals(parts[1])) {
+            keyPatterns.add(globToPattern(parts[2]));
+            keyActions.add(action);
+         } else {
+            log.error("Invalid normalizer rule on line " + lineNumber + ": " + line);
+         }
+      }
+   }
+
+   private static Pattern globToPattern(String glob) {
+      StringBuilder sb = new StringBuilder();
+      int start = 0;
+      for (int i = glob.indexOf('*'); i != -1; i = glob.indexOf('*', start)) {
+         sb.append(Pattern.quote(glob.substring(start, i))).append(".*");
+         start = i + 1;
+      }
+      sb.append(Pattern.quote(glob.substring(start)));
+      return Pattern.compile(sb.toString());
+   }
+
+   /**
+    * 
+    * @param cls
+    * @return action for objects of the class, the first rule found walking up from the class
+    */
+   public int getClassAction(Class<?> cls) {
+      for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+         Integer action = classRules.get(c.getName());
+         if (action != null) {
+            return action;
+         }
+         for (Class<?> i : c.getInterfaces()) {
+            action = classRules.get(i.getName());
+            if (action != null) {
+               return action;
+            }
+         }
+      }
+      return INCLUDE;
+   }
+
+   /**
+    * 
+    * @param cls
+    *           class of the object the getter is invoked on
+    * @param getterName
+    * @return action for values returned by the getter
+    */
+   public int getMethodAction(Class<?> cls, String getterName) {
+      for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+         Integer action = methodRules.get(c.getName() + "." + getterName);
+         if (action != null) {
+            return action;
+         }
+      }
+      Integer action = methodRules.get("*." + getterName);
+      return action == null ? INCLUDE : action;
+   }
+
+   /**
+    * 
+    * @return true if there are rules that need to be checked for every property key
+    */
+   public boolean hasKeyRules() {
+      return !keyPatterns.isEmpty();
+   }
+
+   /**
+    * 
+    * @param key
+    * @return action of the first key rule matching the whole key
+    */
+   public int getKeyAction(CharSequence key) {
+      for (int i = 0; i < keyPatterns.size(); i++) {
+         if (keyPatterns.get(i).matcher(key).matches()) {
+            return keyActions.get(i);
+         }
+      }
+      return INCLUDE;
+   }
+}
@@ -0,0 +1,159 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.infinispan.util.logging.Log;
+import org.infinispan.util.logging.LogFactory;
+
+/**
+ * 
+ * Runs notification tasks (normalization, diffing and delivery) on a single daemon thread with a
+ * bounded queue. Submitting never blocks, when the queue is full the task is dropped and counted.
+ * Tasks that must not be lost are parked instead and run by the notifier thread after the task it
+ * is currently running.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class NotificationDispatcher {
+   private static final Log log = LogFactory.getLog(NotificationDispatcher.class);
+
+   public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+   private final int queueSize;
+   private final AtomicLong dropped = new AtomicLong();
+   private final ConcurrentLinkedQueue<Runnable> parked = new ConcurrentLinkedQueue<Runnable>();
+   private final Runnable runParked = new Runnable() {
+      @Override
+      public void run() {
+         // parked tasks are run by afterExecute
+      }
+   };
+   private volatile ThreadPoolExecutor executor;
+
+   public NotificationDispatcher(int queueSize) {
+      this.queueSize = queueSize;
+   }
+
+   private ThreadPoolExecutor getExecutor() {
+      ThreadPoolExecutor e = executor;
+      if (e == null) {
+         synchronized (this) {
+            e = executor;
+            if (e == null) {
+               e = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                  @Override
+                  public Thread newThread(Runnable r) {
+                     Thread t = new Thread(r, "ConfigNormalizer-notifier");
+                     t.setDaemon(true);
+                     return t;
+                  }
+               }) {
+                  @Override
+                  protected void afterExecute(Runnable r, Throwable t) {
+                     runParkedTasks();
+                  }
+               };
+               executor = e;
+            }
+         }
+      }
+      return e;
+   }
+
+   /**
+    * 
+    * Queues the task for asynchronous execution.
+    * 
+    * @param task
+    * @return false if the queue was full and the task was dropped
+    */
+   public boolean dispatch(Runnable task) {
+      if (submit(task)) {
+         return true;
+      }
+      long count = dropped.incrementAndGet();
+      if (log.isDebugEnabled()) {
+         log.debug("Notification queue full, dropped " + count + " tasks so far");
+      }
+      return false;
+   }
+
+   /**
+    * 
+    * Queues the task for asynchronous execution, never drops it and never runs it on the caller
+    * thread. When the queue is full the task is parked and the notifier thread runs it as soon as
+    * it finishes its current task.
+    * 
+    * @param task
+    */
+   public void dispatchReliably(Runnable task) {
+      if (submit(task)) {
+         return;
+      }
+      parked.add(task);
+      // the notifier may have drained the queue before the task was parked, make sure afterExecute
+      // runs once more, if this is rejected as well the queue is still full and it will run anyway
+      submit(runParked);
+   }
+
+   private boolean submit(Runnable task) {
+      try {
+         getExecutor().execute(task);
+         return true;
+      } catch (RejectedExecutionException e) {
+         return false;
+      }
+   }
+
+   private void runParkedTasks() {
+      Runnable task;
+      while ((task = parked.poll()) != null) {
+         try {
+            task.run();
+         } catch (RuntimeException e) {
+            log.error("Error while running parked notification task", e);
+         }
+      }
+   }
+
+   /**
+    * 
+    * @return number of tasks dropped because the queue was full
+    */
+   public long getDroppedCount() {
+      return dropped.get();
+   }
+
+   /**
+    * 
+    * @return number of tasks waiting in the queue
+    */
+   public int getQueueDepth() {
+      ThreadPoolExecutor e = executor;
+      return (e == null ? 0 : e.getQueue().size()) + parked.size();
+   }
+}
@@ -0,0 +1,243 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * 
+ * Normalized configuration kept in a direct ByteBuffer, out of the heap. Entries are sorted by
+ * UTF-8 bytes of the key, the buffer holds the entry count, a table of entry offsets and the
+ * entries, each an int length and the bytes of the key followed by the same for the value. Lookup
+ * is a binary search comparing bytes in the buffer, keys and values become Strings only when asked
+ * for. The buffer is only read after construction, so the snapshot can be read by many threads.
+ * A snapshot that is replaced and no longer read by anyone can be recycled, its buffer is then
+ * overwritten by the next snapshot if that fits, instead of allocating direct memory again.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class OffHeapSnapshot {
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   private static final Comparator<byte[]> BYTE_ORDER = new Comparator<byte[]>() {
+      @Override
+      public int compare(byte[] o1, byte[] o2) {
+         int n = Math.min(o1.length, o2.length);
+         for (int i = 0; i < n; i++) {
+            int c = (o1[i] & 0xff) - (o2[i] & 0xff);
+            if (c != 0) {
+               return c;
+            }
+         }
+         return o1.length - o2.length;
+      }
+   };
+
+   private final ByteBuffer buffer;
+   private final int size;
+
+   private OffHeapSnapshot(ByteBuffer buffer) {
+      this.buffer = buffer;
+      this.size = buffer.getInt(0);
+   }
+
+   /**
+    * 
+    * Copies the properties out of the heap.
+    */
+   public static OffHeapSnapshot create(Properties properties) {
+      return create(properties, null);
+   }
+
+   /**
+    * 
+    * Copies the properties out of the heap into the buffer of the recycled snapshot if they fit,
+    * into a new buffer otherwise. New buffers get an eighth of headroom so that a slightly larger
+    * configuration still fits when they are recycled.
+    * 
+    * @param recycled replaced snapshot or null, it must not be read afterwards
+    */
+   public static OffHeapSnapshot create(Properties properties, OffHeapSnapshot recycled) {
+      String[] names = properties.stringPropertyNames().toArray(new String[0]);
+      int n = names.length;
+      final byte[][] keys = new byte[n][];
+      byte[][] values = new byte[n][];
+      Integer[] order = new Integer[n];
+      int capacity = 4 + 4 * n;
+      for (int i = 0; i < n; i++) {
+         keys[i] = names[i].getBytes(UTF8);
+         values[i] = properties.getProperty(names[i]).getBytes(UTF8);
+         order[i] = i;
+         capacity += 8 + keys[i].length + values[i].length;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+         @Override
+         public int compare(Integer o1, Integer o2) {
+            return BYTE_ORDER.compare(keys[o1], keys[o2]);
+         }
+      });
+      ByteBuffer buffer;
+      if (recycled != null && recycled.buffer.capacity() >= capacity) {
+         buffer = recycled.buffer;
+         buffer.clear();
+      } else {
+         buffer = ByteBuffer.allocateDirect(capacity + capacity / 8);
+      }
+      buffer.putInt(n);
+      int offset = 4 + 4 * n;
+      for (Integer i : order) {
+         buffer.putInt(offset);
+         offset += 8 + keys[i].length + values[i].length;
+      }
+      for (Integer i : order) {
+         buffer.putInt(keys[i].length);
+         buffer.put(keys[i]);
+         buffer.putInt(values[i].length);
+         buffer.put(values[i]);
+      }
+      return new OffHeapSnapshot(buffer);
+   }
+
+   /**
+    * 
+    * @return number of entries
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * 
+    * @return bytes of direct memory taken by the snapshot
+    */
+   public int getMemorySize() {
+      return buffer.capacity();
+   }
+
+   private int keyOffset(int i) {
+      return buffer.getInt(4 + 4 * i);
+   }
+
+   private int valueOffset(int i) {
+      int keyOffset = keyOffset(i);
+      return keyOffset + 4 + buffer.getInt(keyOffset);
+   }
+
+   private String getString(int offset) {
+      byte[] bytes = new byte[buffer.getInt(offset)];
+      for (int i = 0; i < bytes.length; i++) {
+         bytes[i] = buffer.get(offset + 4 + i);
+      }
+      return new String(bytes, UTF8);
+   }
+
+   public String getKey(int i) {
+      return getString(keyOffset(i));
+   }
+
+   public String getValue(int i) {
+      return getString(valueOffset(i));
+   }
+
+   /**
+    * 
+    * @return index of the key, -1 if there is no such key
+    */
+   public int indexOf(String key) {
+      byte[] bytes = key.getBytes(UTF8);
+      int low = 0;
+      int high = size - 1;
+      while (low <= high) {
+         int mid = (low + high) >>> 1;
+         int c = compare(buffer, keyOffset(mid), bytes);
+         if (c < 0) {
+            low = mid + 1;
+         } else if (c > 0) {
+            high = mid - 1;
+         } else {
+            return mid;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * 
+    * @return value of the key, null if there is no such key
+    */
+   public String get(String key) {
+      int i = indexOf(key);
+      return i == -1 ? null : getValue(i);
+   }
+
+   /**
+    * 
+    * Compares key of entry i with key of entry j of the other snapshot, in the order of the
+    * entries.
+    */
+   public int compareKey(int i, OffHeapSnapshot other, int j) {
+      return compare(buffer, keyOffset(i), other.buffer, other.keyOffset(j));
+   }
+
+   /**
+    * 
+    * @return true if value of entry i equals value of entry j of the other snapshot
+    */
+   public boolean valueEquals(int i, OffHeapSnapshot other, int j) {
+      return compare(buffer, valueOffset(i), other.buffer, other.valueOffset(j)) == 0;
+   }
+
+   public Properties toProperties() {
+      Properties p = new Properties();
+      for (int i = 0; i < size; i++) {
+         p.put(getKey(i), getValue(i));
+      }
+      return p;
+   }
+
+   private static int compare(ByteBuffer b1, int offset1, ByteBuffer b2, int offset2) {
+      int length1 = b1.getInt(offset1);
+      int length2 = b2.getInt(offset2);
+      int n = Math.min(length1, length2);
+      for (int i = 0; i < n; i++) {
+         int c = (b1.get(offset1 + 4 + i) & 0xff) - (b2.get(offset2 + 4 + i) & 0xff);
+         if (c != 0) {
+            return c;
+         }
+      }
+      return length1 - length2;
+   }
+
+   private static int compare(ByteBuffer b, int offset, byte[] bytes) {
+      int length = b.getInt(offset);
+      int n = Math.min(length, bytes.length);
+      for (int i = 0; i < n; i++) {
+         int c = (b.get(offset + 4 + i) & 0xff) - (bytes[i] & 0xff);
+         if (c != 0) {
+            return c;
+         }
+      }
+      return length - bytes.length;
+   }
+}
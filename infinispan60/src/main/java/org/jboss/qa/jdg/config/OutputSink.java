@@ -0,0 +1,75 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Comparator;
+
+/**
+ * 
+ * Output format of normalized configuration. Implementations are found by ServiceLoader in
+ * META-INF/services/org.jboss.qa.jdg.config.OutputSink, a new instance is used for every output
+ * so they can keep state. Entries are handed over one by one in the order of getKeyOrder(), each
+ * key once, grouped in sections by the first segment of the key (global, cache, jgroups, ...).
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public interface OutputSink {
+
+   /**
+    * 
+    * @return name of the format as given to the -f option
+    */
+   String getFormat();
+
+   /**
+    * 
+    * @return order in which entries have to come, null for natural order of the keys
+    */
+   Comparator<String> getKeyOrder();
+
+   /**
+    * 
+    * @return true if the output should be appended to an existing file
+    */
+   boolean isAppend();
+
+   void open(WritableByteChannel channel) throws IOException;
+
+   void startSection(String section) throws IOException;
+
+   /**
+    * 
+    * @param key
+    * @param type
+    *           one of ConfigSnapshot.TYPE_*
+    * @param value
+    *           value as output to properties
+    */
+   void entry(String key, int type, String value) throws IOException;
+
+   void endSection(String section) throws IOException;
+
+   /**
+    * 
+    * Writes whatever is buffered, the channel is closed by the caller.
+    */
+   void close() throws IOException;
+}
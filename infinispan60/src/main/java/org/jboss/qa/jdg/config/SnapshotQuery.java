@@ -0,0 +1,800 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * 
+ * Looks up keys in a snapshot written by ConfigNormalizer in standard or binary format without
+ * reading the whole file. The snapshot is memory mapped together with a sidecar index
+ * &lt;snapshot&gt;.idx that is built on first use and reused while the snapshot's length and
+ * modification time stay the same. Layout of the index:
+ * 
+ * <pre>
+ * int magic, int version, long snapshot length, long snapshot last modified, int format, int count
+ * per entry sorted by UTF-8 bytes of the key: int key offset, int key length, int value offset
+ * copied keys in UTF-8
+ * </pre>
+ * 
+ * Keys that are in the snapshot as they are (not escaped, not front coded) aren't copied, their
+ * offset points into the snapshot and the length is stored as ~length. Other key offsets point
+ * into the index. Value offsets point into the snapshot: to the start of the line in standard
+ * format, to the value string in binary format. Exact keys and literal prefixes of globs
+ * are found by binary search, so a lookup touches only a few pages of both files. Instances aren't
+ * thread safe.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class SnapshotQuery {
+
+   public static final int MAGIC = 0x434e5149;
+   public static final int VERSION = 1;
+
+   static final int FORMAT_STANDARD = 0;
+   static final int FORMAT_BINARY = 1;
+
+   private static final int HEADER_SIZE = 32;
+   private static final int ENTRY_SIZE = 12;
+
+   private final ByteBuffer snapshot;
+   private final ByteBuffer index;
+   private final int format;
+   private final int count;
+   private final LineBuffer line = new LineBuffer();
+
+   private SnapshotQuery(ByteBuffer snapshot, ByteBuffer index) {
+      this.snapshot = snapshot;
+      this.index = index;
+      this.format = index.getInt(24);
+      this.count = index.getInt(28);
+   }
+
+   /**
+    * 
+    * Maps the snapshot and its index, the index is built when missing or stale.
+    * 
+    * @param snapshotFile
+    * @param indexFile
+    *           sidecar index, if it can't be written the index is kept on heap
+    * @throws IOException
+    */
+   public static SnapshotQuery open(File snapshotFile, File indexFile) throws IOException {
+      ByteBuffer snapshot = map(snapshotFile);
+      long length = snapshotFile.length();
+      long lastModified = snapshotFile.lastModified();
+      ByteBuffer index = null;
+      if (indexFile.isFile()) {
+         index = map(indexFile);
+         if (index.capacity() < HEADER_SIZE || index.getInt(0) != MAGIC || index.getInt(4) != VERSION || index.getLong(8) != length
+               || index.getLong(16) != lastModified) {
+            index = null;
+         }
+      }
+      if (index == null) {
+         index = buildIndex(snapshot, length, lastModified);
+         File tmp = new File(indexFile.getPath() + ".tmp");
+         try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+               ByteBuffer b = index.duplicate();
+               while (b.hasRemaining()) {
+                  out.getChannel().write(b);
+               }
+            } finally {
+               out.close();
+            }
+            if (!tmp.renameTo(indexFile) && !(indexFile.delete() && tmp.renameTo(indexFile))) {
+               throw new IOException("Couldn't rename " + tmp + " to " + indexFile);
+            }
+         } catch (IOException e) {
+            tmp.delete();
+            System.err.println("WARN: index of " + snapshotFile + " kept in memory only, " + e.getMessage());
+         }
+      }
+      return new SnapshotQuery(snapshot, index);
+   }
+
+   public static SnapshotQuery open(File snapshotFile) throws IOException {
+      return open(snapshotFile, new File(snapshotFile.getPath() + ".idx"));
+   }
+
+   private static ByteBuffer map(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+         if (raf.length() > Integer.MAX_VALUE) {
+            throw new IOException("File " + file + " is too large to be mapped");
+         }
+         return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      } finally {
+         raf.close();
+      }
+   }
+
+   /**
+    * 
+    * @return number of distinct keys in the snapshot
+    */
+   public int size() {
+      return count;
+   }
+
+   public String getKey(int i) {
+      int entry = HEADER_SIZE + i * ENTRY_SIZE;
+      return decode(keyBuffer(entry), index.getInt(entry), keyLength(entry));
+   }
+
+   private ByteBuffer keyBuffer(int entry) {
+      return index.getInt(entry + 4) < 0 ? snapshot : index;
+   }
+
+   private int keyLength(int entry) {
+      int length = index.getInt(entry + 4);
+      return length < 0 ? ~length : length;
+   }
+
+   public String getValue(int i) throws IOException {
+      int pos = index.getInt(HEADER_SIZE + i * ENTRY_SIZE + 8);
+      if (format == FORMAT_BINARY) {
+         long[] varint = new long[1];
+         int start = readVarLong(snapshot, pos, varint);
+         return decode(snapshot, start, (int) varint[0]);
+      }
+      readLogicalLine(snapshot, pos, line);
+      return line.parseValue();
+   }
+
+   /**
+    * 
+    * @return value of the key, null if there is no such key
+    */
+   public String get(String key) throws IOException {
+      byte[] bytes = key.getBytes(BinarySnapshotWriter.UTF8);
+      int i = lowerBound(bytes, false);
+      return i < count && compare(i, bytes, false) == 0 ? getValue(i) : null;
+   }
+
+   /**
+    * 
+    * @return entries with keys starting with the prefix, in key order
+    */
+   public Map<String, String> getPrefixed(String prefix) throws IOException {
+      return find(prefix.getBytes(BinarySnapshotWriter.UTF8), null, null);
+   }
+
+   /**
+    * 
+    * @param glob
+    *           key pattern, * matches any sequence of characters, ? a single character
+    * @return matching entries in key order
+    */
+   public Map<String, String> glob(String glob) throws IOException {
+      Map<String, String> result = new LinkedHashMap<String, String>();
+      int wildcard = 0;
+      while (wildcard < glob.length() && glob.charAt(wildcard) != '*' && glob.charAt(wildcard) != '?') {
+         wildcard++;
+      }
+      if (wildcard == glob.length()) {
+         String value = get(glob);
+         if (value != null) {
+            result.put(glob, value);
+         }
+         return result;
+      }
+      byte[] prefix = glob.substring(0, wildcard).getBytes(BinarySnapshotWriter.UTF8);
+      if (wildcard == glob.length() - 1 && glob.charAt(wildcard) == '*') {
+         return find(prefix, null, null);
+      }
+      String literal = "";
+      for (String part : glob.substring(wildcard).split("[*?]")) {
+         if (part.length() > literal.length()) {
+            literal = part;
+         }
+      }
+      return find(prefix, literal.getBytes(BinarySnapshotWriter.UTF8), compileGlob(glob));
+   }
+
+   /**
+    * 
+    * @param literal
+    *           part of the pattern after the prefix, keys not containing it are skipped without
+    *           being decoded
+    * @return entries with keys starting with the prefix and matching the pattern if there's one
+    */
+   private Map<String, String> find(byte[] prefix, byte[] literal, Pattern pattern) throws IOException {
+      Map<String, String> result = new LinkedHashMap<String, String>();
+      int from = lowerBound(prefix, true);
+      int to = upperBound(prefix, from);
+      for (int i = from; i < to; i++) {
+         if (literal != null && literal.length > 0 && !contains(i, prefix.length, literal)) {
+            continue;
+         }
+         String key = getKey(i);
+         if (pattern == null || pattern.matcher(key).matches()) {
+            result.put(key, getValue(i));
+         }
+      }
+      return result;
+   }
+
+   private static Pattern compileGlob(String glob) {
+      StringBuilder regex = new StringBuilder();
+      int start = 0;
+      for (int i = 0; i < glob.length(); i++) {
+         char c = glob.charAt(i);
+         if (c == '*' || c == '?') {
+            if (i > start) {
+               regex.append(Pattern.quote(glob.substring(start, i)));
+            }
+            regex.append(c == '*' ? ".*" : ".");
+            start = i + 1;
+         }
+      }
+      if (start < glob.length()) {
+         regex.append(Pattern.quote(glob.substring(start)));
+      }
+      return Pattern.compile(regex.toString(), Pattern.DOTALL);
+   }
+
+   /**
+    * 
+    * Compares UTF-8 bytes of the i-th key with given bytes, as a prefix if asked so.
+    */
+   private int compare(int i, byte[] bytes, boolean prefix) {
+      int entry = HEADER_SIZE + i * ENTRY_SIZE;
+      ByteBuffer b = keyBuffer(entry);
+      int pos = index.getInt(entry);
+      int length = keyLength(entry);
+      int n = Math.min(length, bytes.length);
+      for (int j = 0; j < n; j++) {
+         int c = (b.get(pos + j) & 0xff) - (bytes[j] & 0xff);
+         if (c != 0) {
+            return c;
+         }
+      }
+      if (prefix && length >= bytes.length) {
+         return 0;
+      }
+      return length - bytes.length;
+   }
+
+   private boolean contains(int i, int from, byte[] literal) {
+      int entry = HEADER_SIZE + i * ENTRY_SIZE;
+      ByteBuffer b = keyBuffer(entry);
+      int pos = index.getInt(entry);
+      int last = keyLength(entry) - literal.length;
+      for (int j = from; j <= last; j++) {
+         int k = 0;
+         while (k < literal.length && b.get(pos + j + k) == literal[k]) {
+            k++;
+         }
+         if (k == literal.length) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private int lowerBound(byte[] bytes, boolean prefix) {
+      int lo = 0;
+      int hi = count;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (compare(mid, bytes, prefix) < 0) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+
+   private int upperBound(byte[] prefix, int from) {
+      int lo = from;
+      int hi = count;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (compare(mid, prefix, true) <= 0) {
+            lo = mid + 1;
+         } else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+
+   private static ByteBuffer buildIndex(ByteBuffer snapshot, long length, long lastModified) throws IOException {
+      IndexBuilder builder = new IndexBuilder(snapshot);
+      int format;
+      if (snapshot.capacity() >= 4 && snapshot.getInt(0) == BinarySnapshotWriter.MAGIC) {
+         format = FORMAT_BINARY;
+         scanBinary(snapshot, builder);
+      } else {
+         format = FORMAT_STANDARD;
+         scanStandard(snapshot, builder);
+      }
+      return builder.build(length, lastModified, format);
+   }
+
+   /**
+    * 
+    * Collects entries of the index. Keys found verbatim in the snapshot are referred to, the others
+    * are copied.
+    */
+   private static class IndexBuilder {
+      private final ByteBuffer snapshot;
+      private int[] keyOffsets = new int[1024];
+      private int[] keyLengths = new int[1024];
+      private int[] valueOffsets = new int[1024];
+      private int size;
+      private byte[] copied = new byte[4096];
+      private int copiedLength;
+
+      private IndexBuilder(ByteBuffer snapshot) {
+         this.snapshot = snapshot;
+      }
+
+      private void add(int keyOffset, int keyLength, int valueOffset) {
+         if (size == keyOffsets.length) {
+            keyOffsets = Arrays.copyOf(keyOffsets, size * 2);
+            keyLengths = Arrays.copyOf(keyLengths, size * 2);
+            valueOffsets = Arrays.copyOf(valueOffsets, size * 2);
+         }
+         keyOffsets[size] = keyOffset;
+         keyLengths[size] = keyLength;
+         valueOffsets[size] = valueOffset;
+         size++;
+      }
+
+      /**
+       * 
+       * Adds key found at given offset of the snapshot.
+       */
+      private void addVerbatim(int keyOffset, int keyLength, int valueOffset) {
+         add(keyOffset, ~keyLength, valueOffset);
+      }
+
+      private void addCopy(byte[] key, int valueOffset) {
+         while (copiedLength + key.length > copied.length) {
+            copied = Arrays.copyOf(copied, copied.length * 2);
+         }
+         System.arraycopy(key, 0, copied, copiedLength, key.length);
+         add(copiedLength, key.length, valueOffset);
+         copiedLength += key.length;
+      }
+
+      private int compare(int i, int j) {
+         int li = keyLengths[i] < 0 ? ~keyLengths[i] : keyLengths[i];
+         int lj = keyLengths[j] < 0 ? ~keyLengths[j] : keyLengths[j];
+         int n = Math.min(li, lj);
+         for (int k = 0; k < n; k++) {
+            int c = (byteAt(i, k) & 0xff) - (byteAt(j, k) & 0xff);
+            if (c != 0) {
+               return c;
+            }
+         }
+         return li - lj;
+      }
+
+      private byte byteAt(int i, int k) {
+         return keyLengths[i] < 0 ? snapshot.get(keyOffsets[i] + k) : copied[keyOffsets[i] + k];
+      }
+
+      /**
+       * 
+       * Stable merge sort of entries by key, so that of duplicate keys the last one comes last.
+       * Sorted snapshots take one comparison per entry.
+       */
+      private void sort(int[] a, int[] tmp, int from, int to) {
+         if (to - from < 2) {
+            return;
+         }
+         int mid = (from + to) >>> 1;
+         sort(a, tmp, from, mid);
+         sort(a, tmp, mid, to);
+         if (compare(a[mid - 1], a[mid]) <= 0) {
+            return;
+         }
+         System.arraycopy(a, from, tmp, from, to - from);
+         int i = from;
+         int j = mid;
+         int k = from;
+         while (i < mid && j < to) {
+            a[k++] = compare(tmp[j], tmp[i]) < 0 ? tmp[j++] : tmp[i++];
+         }
+         while (i < mid) {
+            a[k++] = tmp[i++];
+         }
+         while (j < to) {
+            a[k++] = tmp[j++];
+         }
+      }
+
+      private ByteBuffer build(long length, long lastModified, int format) throws IOException {
+         int[] order = new int[size];
+         for (int i = 0; i < size; i++) {
+            order[i] = i;
+         }
+         sort(order, new int[size], 0, size);
+         int n = 0;
+         for (int i = 0; i < size; i++) {
+            if (i + 1 == size || compare(order[i], order[i + 1]) != 0) {
+               order[n++] = order[i];
+            }
+         }
+         long indexSize = HEADER_SIZE + (long) n * ENTRY_SIZE + copiedLength;
+         if (indexSize > Integer.MAX_VALUE) {
+            throw new IOException("Index would be too large to be mapped");
+         }
+         ByteBuffer index = ByteBuffer.allocate((int) indexSize);
+         index.putInt(MAGIC);
+         index.putInt(VERSION);
+         index.putLong(length);
+         index.putLong(lastModified);
+         index.putInt(format);
+         index.putInt(n);
+         int copiedStart = HEADER_SIZE + n * ENTRY_SIZE;
+         for (int i = 0; i < n; i++) {
+            int e = order[i];
+            index.putInt(keyLengths[e] < 0 ? keyOffsets[e] : copiedStart + keyOffsets[e]);
+            index.putInt(keyLengths[e]);
+            index.putInt(valueOffsets[e]);
+         }
+         index.put(copied, 0, copiedLength);
+         index.flip();
+         return index;
+      }
+   }
+
+   private static int[] add(int[] values, int size, int value) {
+      if (size == values.length) {
+         values = Arrays.copyOf(values, size * 2);
+      }
+      values[size] = value;
+      return values;
+   }
+
+   /**
+    * 
+    * Collects keys and line offsets of a file in standard properties format.
+    */
+   private static void scanStandard(ByteBuffer snapshot, IndexBuilder builder) throws IOException {
+      if (snapshot.capacity() >= 5 && snapshot.get(0) == '<' && snapshot.get(1) == '?') {
+         throw new IOException("XML snapshots can't be queried, store them with -f standard or -f binary");
+      }
+      LineBuffer line = new LineBuffer();
+      int pos = 0;
+      while (pos < snapshot.capacity()) {
+         int start = skipWhitespace(snapshot, pos);
+         pos = readLogicalLine(snapshot, start, line);
+         if (line.length > 0) {
+            line.split();
+            if (line.isKeyVerbatim()) {
+               builder.addVerbatim(start, line.keyEnd, start);
+            } else {
+               builder.addCopy(line.unescape(0, line.keyEnd).getBytes(BinarySnapshotWriter.UTF8), start);
+            }
+         }
+      }
+   }
+
+   /**
+    * 
+    * Collects keys and value offsets of a binary snapshot, resolving dictionary references.
+    */
+   private static void scanBinary(ByteBuffer snapshot, IndexBuilder builder) throws IOException {
+      int end = snapshot.capacity() - 4;
+      if (end < 8 || snapshot.getInt(4) != BinarySnapshotWriter.VERSION) {
+         throw new IOException("Unsupported binary config snapshot");
+      }
+      CRC32 crc = new CRC32();
+      byte[] chunk = new byte[65536];
+      ByteBuffer b = snapshot.duplicate();
+      b.position(0);
+      while (b.position() < end) {
+         int n = Math.min(chunk.length, end - b.position());
+         b.get(chunk, 0, n);
+         crc.update(chunk, 0, n);
+      }
+      if ((int) crc.getValue() != snapshot.getInt(end)) {
+         throw new IOException("Checksum of binary config snapshot doesn't match");
+      }
+      long[] varint = new long[1];
+      int[] dictionary = new int[256];
+      byte[] previous = new byte[0];
+      int pos = 8;
+      try {
+         while (snapshot.get(pos++) == BinarySnapshotWriter.SECTION) {
+            pos = readVarLong(snapshot, pos, varint);
+            pos += (int) varint[0];
+            int dictionarySize = 0;
+            previous = new byte[0];
+            while (true) {
+               pos = readVarLong(snapshot, pos, varint);
+               if (varint[0] == 0) {
+                  break;
+               }
+               int shared = (int) varint[0] - 1;
+               pos = readVarLong(snapshot, pos, varint);
+               int suffix = (int) varint[0];
+               if (shared > previous.length || suffix < 0 || pos + suffix > end) {
+                  throw new IOException("Corrupted binary config snapshot");
+               }
+               byte[] key = Arrays.copyOf(previous, shared + suffix);
+               for (int i = 0; i < suffix; i++) {
+                  key[shared + i] = snapshot.get(pos + i);
+               }
+               pos += suffix;
+               if (snapshot.get(pos++) > ConfigSnapshot.TYPE_ENUM) {
+                  throw new IOException("Corrupted binary config snapshot");
+               }
+               pos = readVarLong(snapshot, pos, varint);
+               int value;
+               if (varint[0] == 0) {
+                  value = pos;
+                  pos = readVarLong(snapshot, pos, varint);
+                  pos += (int) varint[0];
+                  dictionary = add(dictionary, dictionarySize++, value);
+               } else if (varint[0] <= dictionarySize) {
+                  value = dictionary[(int) varint[0] - 1];
+               } else {
+                  throw new IOException("Corrupted binary config snapshot");
+               }
+               builder.addCopy(key, value);
+               previous = key;
+            }
+         }
+      } catch (IndexOutOfBoundsException e) {
+         throw new IOException("Corrupted binary config snapshot");
+      }
+   }
+
+   private static int readVarLong(ByteBuffer b, int pos, long[] result) throws IOException {
+      long v = 0;
+      int shift = 0;
+      int c;
+      do {
+         if (shift > 63) {
+            throw new IOException("Corrupted binary config snapshot");
+         }
+         c = b.get(pos++);
+         v |= (long) (c & 0x7f) << shift;
+         shift += 7;
+      } while ((c & 0x80) != 0);
+      result[0] = v;
+      return pos;
+   }
+
+   private static String decode(ByteBuffer b, int pos, int length) {
+      byte[] bytes = new byte[length];
+      ByteBuffer d = b.duplicate();
+      d.position(pos);
+      d.get(bytes);
+      return new String(bytes, BinarySnapshotWriter.UTF8);
+   }
+
+   private static boolean isWhitespace(int c) {
+      return c == ' ' || c == '\t' || c == '\f';
+   }
+
+   private static int skipWhitespace(ByteBuffer b, int pos) {
+      while (pos < b.capacity() && isWhitespace(b.get(pos))) {
+         pos++;
+      }
+      return pos;
+   }
+
+   /**
+    * 
+    * Reads logical line of a properties file the way Properties.load does: continuation lines are
+    * joined, comments and blank lines come out empty, escapes are kept.
+    * 
+    * @return offset of the next line
+    */
+   private static int readLogicalLine(ByteBuffer b, int pos, LineBuffer line) {
+      int limit = b.capacity();
+      line.length = 0;
+      line.firstJoin = Integer.MAX_VALUE;
+      pos = skipWhitespace(b, pos);
+      boolean comment = pos < limit && (b.get(pos) == '#' || b.get(pos) == '!');
+      int naturalStart = 0;
+      while (pos < limit) {
+         byte c = b.get(pos++);
+         if (c == '\n' || c == '\r') {
+            if (c == '\r' && pos < limit && b.get(pos) == '\n') {
+               pos++;
+            }
+            int backslashes = 0;
+            while (line.length - backslashes > naturalStart && line.bytes[line.length - 1 - backslashes] == '\\') {
+               backslashes++;
+            }
+            if (comment || backslashes % 2 == 0) {
+               break;
+            }
+            line.length--;
+            naturalStart = line.length;
+            line.firstJoin = Math.min(line.firstJoin, line.length);
+            pos = skipWhitespace(b, pos);
+         } else {
+            line.append(c);
+         }
+      }
+      if (comment) {
+         line.length = 0;
+      }
+      return pos;
+   }
+
+   private static class LineBuffer {
+      private byte[] bytes = new byte[256];
+      private int length;
+      private int firstJoin;
+      private int keyEnd;
+      private int valueStart;
+
+      private void append(byte c) {
+         if (length == bytes.length) {
+            bytes = Arrays.copyOf(bytes, length * 2);
+         }
+         bytes[length++] = c;
+      }
+
+      private void split() {
+         int i = 0;
+         while (i < length && bytes[i] != '=' && bytes[i] != ':' && !isWhitespace(bytes[i])) {
+            i += bytes[i] == '\\' ? 2 : 1;
+         }
+         keyEnd = Math.min(i, length);
+         boolean separator = false;
+         while (i < length) {
+            byte c = bytes[i];
+            if (!separator && (c == '=' || c == ':')) {
+               separator = true;
+            } else if (!isWhitespace(c)) {
+               break;
+            }
+            i++;
+         }
+         valueStart = i;
+      }
+
+      /**
+       * 
+       * @return true if the last split key is in the file as is, not escaped nor continued
+       */
+      private boolean isKeyVerbatim() {
+         if (keyEnd > firstJoin) {
+            return false;
+         }
+         for (int i = 0; i < keyEnd; i++) {
+            if (bytes[i] == '\\') {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      private String parseValue() throws IOException {
+         split();
+         return unescape(valueStart, length);
+      }
+
+      private String unescape(int from, int to) throws IOException {
+         StringBuilder sb = new StringBuilder(to - from);
+         int run = from;
+         int i = from;
+         while (i < to) {
+            if (bytes[i] != '\\') {
+               i++;
+               continue;
+            }
+            sb.append(new String(bytes, run, i - run, BinarySnapshotWriter.UTF8));
+            if (i + 1 == to) {
+               run = to;
+               break;
+            }
+            byte c = bytes[i + 1];
+            if (c == 'u') {
+               if (i + 6 > to) {
+                  throw new IOException("Malformed \\uxxxx encoding");
+               }
+               try {
+                  sb.append((char) Integer.parseInt(new String(bytes, i + 2, 4, BinarySnapshotWriter.UTF8), 16));
+               } catch (NumberFormatException e) {
+                  throw new IOException("Malformed \\uxxxx encoding");
+               }
+               i += 6;
+               run = i;
+            } else if (c == 't' || c == 'n' || c == 'r' || c == 'f') {
+               sb.append(c == 't' ? '\t' : c == 'n' ? '\n' : c == 'r' ? '\r' : '\f');
+               i += 2;
+               run = i;
+            } else {
+               run = i + 1;
+               i += 2;
+            }
+         }
+         sb.append(new String(bytes, run, to - run, BinarySnapshotWriter.UTF8));
+         return sb.toString();
+      }
+   }
+
+   private static void usage() {
+      System.out.println("USAGE ConfigNormalizer query [OPTIONS] <key_pattern> <snapshot_file> ...");
+      System.out.println("  looks up keys in snapshots stored with -f standard or -f binary");
+      System.out.println("  key_pattern is an exact key or a glob, * matches any characters, ? a single one,");
+      System.out.println("  a pattern ending with the only * is a prefix lookup, e.g. cache.default.*");
+      System.out.println("OPTIONS:");
+      System.out.println("  -i <index_dir>");
+      System.out.println("     directory of the sidecar index files, default next to the snapshot as <snapshot_file>.idx");
+      System.out.println("  -v");
+      System.out.println("     print time of opening the index and of the lookup per file");
+      System.exit(0);
+   }
+
+   public static void main(String[] args) throws Exception {
+      String indexDir = null;
+      boolean verbose = false;
+      String pattern = null;
+      List<File> files = new ArrayList<File>();
+      for (int i = 0; i < args.length; i++) {
+         if (args[i].equals("-i")) {
+            indexDir = args[i + 1];
+            i++;
+         } else if (args[i].equals("-v")) {
+            verbose = true;
+         } else if (pattern == null) {
+            pattern = args[i];
+         } else {
+            files.add(new File(args[i]));
+         }
+      }
+      if (pattern == null || files.isEmpty()) {
+         usage();
+         return;
+      }
+      for (File file : files) {
+         File indexFile = indexDir == null ? new File(file.getPath() + ".idx") : new File(indexDir, file.getName() + ".idx");
+         long start = System.nanoTime();
+         SnapshotQuery query = open(file, indexFile);
+         long opened = System.nanoTime();
+         Map<String, String> result = query.glob(pattern);
+         long found = System.nanoTime();
+         for (Map.Entry<String, String> e : result.entrySet()) {
+            System.out.println((files.size() > 1 ? file.getPath() + ":" : "") + e.getKey() + "=" + e.getValue());
+         }
+         if (verbose) {
+            System.err.println(String.format("%s: %d of %d keys, open %.3f ms, lookup %.3f ms", file.getPath(), result.size(), query.size(),
+                  (opened - start) / 1e6, (found - opened) / 1e6));
+         }
+      }
+   }
+}
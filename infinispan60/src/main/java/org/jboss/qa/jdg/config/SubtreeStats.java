@@ -0,0 +1,57 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 
+ * Subtree memo counters of normalization runs, a caller keeps one instance per cache manager (or
+ * per benchmark) and passes it to the runs it wants counted. Scratch runs used for sorting are
+ * never counted.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class SubtreeStats {
+
+   private final AtomicLong lookups = new AtomicLong();
+   private final AtomicLong hits = new AtomicLong();
+
+   void add(long lookupCount, long hitCount) {
+      lookups.addAndGet(lookupCount);
+      hits.addAndGet(hitCount);
+   }
+
+   /**
+    * 
+    * @return number of configuration objects, collections and arrays looked up in the subtree memo
+    */
+   public long getLookupCount() {
+      return lookups.get();
+   }
+
+   /**
+    * 
+    * @return number of subtree memo lookups that found the object already flattened in the same
+    *         run, its entries were copied under the new prefix without invoking getters
+    */
+   public long getHitCount() {
+      return hits.get();
+   }
+}
@@ -0,0 +1,179 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * 
+ * Round trip of typed entries through the binary snapshot format, section reads and rejection of
+ * damaged files.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class BinarySnapshotTest {
+
+   private File file;
+
+   @After
+   public void tearDown() {
+      if (file != null) {
+         file.delete();
+      }
+   }
+
+   private String write() throws IOException {
+      file = File.createTempFile("config-snapshot", ".bin");
+      BinarySnapshotWriter w = new BinarySnapshotWriter(new FileOutputStream(file));
+      try {
+         w.write("cache.dist.clustering.cacheMode", ConfigSnapshot.TYPE_ENUM, "DIST_SYNC");
+         w.write("cache.dist.clustering.stateTransfer.fetchInMemoryState", ConfigSnapshot.TYPE_BOOLEAN, "true");
+         w.write("cache.dist.eviction.maxEntries", ConfigSnapshot.TYPE_INT, "1000");
+         w.write("cache.local.eviction.maxEntries", ConfigSnapshot.TYPE_INT, "1000");
+         w.write("global.transport.clusterName", ConfigSnapshot.TYPE_STRING, "ISPN");
+         w.write("global.transport.distributedSyncTimeout", ConfigSnapshot.TYPE_LONG, "240000");
+         w.write("jgroups.UDP.mcast_port", ConfigSnapshot.TYPE_STRING, "45688");
+      } finally {
+         w.close();
+      }
+      return file.getPath();
+   }
+
+   private void corrupt(long offset, int value) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+         raf.seek(offset);
+         raf.write(value);
+      } finally {
+         raf.close();
+      }
+   }
+
+   private long find(String s) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+         byte[] content = new byte[(int) raf.length()];
+         raf.readFully(content);
+         return new String(content, "ISO-8859-1").indexOf(s);
+      } finally {
+         raf.close();
+      }
+   }
+
+   @Test
+   public void testTypedRoundTrip() throws Exception {
+      ConfigSnapshot s = BinarySnapshotReader.readSnapshot(write());
+      assertEquals(7, s.size());
+      int i = s.indexOf("cache.dist.eviction.maxEntries");
+      assertEquals(ConfigSnapshot.TYPE_INT, s.getType(i));
+      assertEquals(1000, s.getLong(i));
+      i = s.indexOf("cache.dist.clustering.stateTransfer.fetchInMemoryState");
+      assertEquals(ConfigSnapshot.TYPE_BOOLEAN, s.getType(i));
+      assertTrue(s.getBoolean(i));
+      i = s.indexOf("global.transport.distributedSyncTimeout");
+      assertEquals(ConfigSnapshot.TYPE_LONG, s.getType(i));
+      assertEquals(240000, s.getLong(i));
+      i = s.indexOf("cache.dist.clustering.cacheMode");
+      assertEquals(ConfigSnapshot.TYPE_ENUM, s.getType(i));
+      assertEquals("DIST_SYNC", s.getString(i));
+      i = s.indexOf("jgroups.UDP.mcast_port");
+      assertEquals(ConfigSnapshot.TYPE_STRING, s.getType(i));
+      assertEquals("45688", s.getString(i));
+      // value shared by two entries of a section is written once and referred to by id
+      assertEquals("1000", s.get("cache.local.eviction.maxEntries"));
+
+      Properties p = BinarySnapshotReader.read(file.getPath());
+      assertEquals(s.toProperties(), p);
+      assertEquals("true", p.getProperty("cache.dist.clustering.stateTransfer.fetchInMemoryState"));
+   }
+
+   @Test
+   public void testReadSection() throws Exception {
+      String path = write();
+      ConfigSnapshot global = BinarySnapshotReader.readSectionSnapshot(path, "global");
+      assertEquals(2, global.size());
+      assertEquals("ISPN", global.get("global.transport.clusterName"));
+      assertEquals(ConfigSnapshot.TYPE_LONG, global.getType(global.indexOf("global.transport.distributedSyncTimeout")));
+      assertNull(global.get("cache.dist.eviction.maxEntries"));
+
+      Properties cache = BinarySnapshotReader.readSection(path, "cache");
+      assertEquals(4, cache.size());
+      assertEquals("DIST_SYNC", cache.getProperty("cache.dist.clustering.cacheMode"));
+      assertEquals(0, BinarySnapshotReader.readSection(path, "missing").size());
+   }
+
+   @Test
+   public void testReadIndex() throws Exception {
+      Map<String, Integer> index = BinarySnapshotReader.readIndex(write());
+      assertEquals(3, index.size());
+      assertEquals(Integer.valueOf(4), index.get("cache"));
+      assertEquals(Integer.valueOf(2), index.get("global"));
+      assertEquals(Integer.valueOf(1), index.get("jgroups"));
+   }
+
+   @Test
+   public void testChecksumMismatch() throws Exception {
+      String path = write();
+      long offset = find("ISPN");
+      assertTrue(offset > 8);
+      corrupt(offset, 'X');
+      try {
+         BinarySnapshotReader.readSnapshot(path);
+         fail("Damaged snapshot was read");
+      } catch (IOException e) {
+         assertTrue(e.getMessage().contains("Checksum"));
+      }
+      // section reads don't verify the checksum
+      assertEquals("XSPN", BinarySnapshotReader.readSection(path, "global").getProperty("global.transport.clusterName"));
+   }
+
+   @Test(expected = IOException.class)
+   public void testBadMagic() throws Exception {
+      write();
+      corrupt(0, 0);
+      BinarySnapshotReader.readSnapshot(file.getPath());
+   }
+
+   @Test
+   public void testBadVersion() throws Exception {
+      write();
+      corrupt(7, BinarySnapshotWriter.VERSION + 1);
+      try {
+         BinarySnapshotReader.readSnapshot(file.getPath());
+         fail("Snapshot of unsupported version was read");
+      } catch (IOException e) {
+         assertFalse(e.getMessage().contains("Checksum"));
+         assertTrue(e.getMessage().contains("version"));
+      }
+   }
+}
@@ -0,0 +1,50 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * 
+ * ConfigNormalizerScaleBenchmark as a test, run by failsafe in the benchmark profile on the corpus
+ * generated into benchmark.corpus.dir.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class ConfigNormalizerScaleIT {
+
+   @Test
+   public void testLinearGrowth() throws Exception {
+      String dir = System.getProperty("benchmark.corpus.dir");
+      assertTrue("benchmark.corpus.dir not set", dir != null);
+      List<File> files = ConfigNormalizerScaleBenchmark.findConfigs(new File(dir));
+      assertFalse("No configs in " + dir, files.isEmpty());
+      List<ConfigNormalizerScaleBenchmark.Result> results = ConfigNormalizerScaleBenchmark.measure(files,
+            Integer.getInteger("benchmark.repeats", ConfigNormalizerScaleBenchmark.DEFAULT_REPEATS));
+      ConfigNormalizerScaleBenchmark.print(results);
+      List<String> failures = ConfigNormalizerScaleBenchmark.check(results, ConfigNormalizerScaleBenchmark.DEFAULT_TOLERANCE);
+      assertTrue(failures.toString(), failures.isEmpty());
+   }
+}
@@ -0,0 +1,74 @@
+/* 
+ * JBoss, Home of Professional Open Source
+ * Copyright 2013 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @author tags. All rights reserved.
+ * See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This copyrighted material is made available to anyone wishing to use,
+ * modify, copy, or redistribute it subject to the terms and conditions
+ * of the GNU Lesser General Public License, v. 2.1.
+ * This program is distributed in the hope that it will be useful, but WITHOUT A
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ * PARTICULAR PURPOSE.  See the GNU Lesser General Public License for more details.
+ * You should have received a copy of the GNU Lesser General Public License,
+ * v.2.1 along with this distribution; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA  02110-1301, USA.
+ */
+package org.jboss.qa.jdg.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.infinispan.Version;
+import org.infinispan.configuration.cache.CacheMode;
+import org.infinispan.configuration.cache.Configuration;
+import org.infinispan.configuration.cache.ConfigurationBuilder;
+import org.infinispan.configuration.global.GlobalConfigurationBuilder;
+import org.junit.Test;
+
+/**
+ * 
+ * GeneratedAccessors of the build against the reflective path: same keys, types and values, and
+ * primitives typed in the snapshot.
+ * 
+ * @author Michal Linhard (mlinhard@redhat.com)
+ */
+public class GeneratedAccessorsTest {
+
+   private static Map<String, Configuration> caches() {
+      Map<String, Configuration> caches = new LinkedHashMap<String, Configuration>();
+      caches.put("local", new ConfigurationBuilder().build());
+      ConfigurationBuilder dist = new ConfigurationBuilder();
+      dist.clustering().cacheMode(CacheMode.DIST_SYNC);
+      dist.eviction().maxEntries(1000);
+      caches.put("dist", dist.build());
+      return caches;
+   }
+
+   @Test
+   public void testTableIsForRunningVersion() throws Exception {
+      AccessorTable table = (AccessorTable) Class.forName("org.jboss.qa.jdg.config.GeneratedAccessors").newInstance();
+      assertEquals(Version.printVersion(), table.getInfinispanVersion());
+   }
+
+   @Test
+   public void testGeneratedAndReflectiveEntriesAreEqual() throws Exception {
+      List<String> diffs = ConfigNormalizer.compareAccessorPaths(GlobalConfigurationBuilder.defaultClusteredBuilder().build(), caches());
+      assertTrue(diffs.toString(), diffs.isEmpty());
+   }
+
+   @Test
+   public void testPrimitivesAreTyped() throws Exception {
+      ConfigSnapshot snapshot = ConfigNormalizer.reflectSnapshot(new GlobalConfigurationBuilder().build(), caches(), null);
+      int i = snapshot.indexOf("cache.dist.eviction.maxEntries");
+      assertTrue(i != -1);
+      assertEquals(ConfigSnapshot.TYPE_INT, snapshot.getType(i));
+      assertEquals(1000, snapshot.getLong(i));
+   }
+}